@@ -0,0 +1,64 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Full energy pass with the scalar and the vectorized Sobel backend. The forks get the incubator
+ module, so sobel-vector really is vectorized:
+ mvn -P benchmark verify -Dcheckstyle.skip -Djmh.args="EnergyBackendBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class EnergyBackendBenchmark {
+
+    @Param({"1024x1024", "3840x2160"})
+    public String size;
+
+    @Param({"sobel", "sobel-vector"})
+    public String backend;
+
+    private Image image;
+
+    @Setup
+    public void setup() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        Random random = new Random(42);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                img.setRGB(col, row, random.nextInt(0x1000000));
+            }
+        }
+        EnergyFunction energyFunction = EnergyFunction.forName(backend);
+        if (backend.equals("sobel-vector") && energyFunction == EnergyFunction.SOBEL) {
+            throw new IllegalStateException("jdk.incubator.vector is not available in the benchmark JVM");
+        }
+        image = new Image(img, null, energyFunction);
+    }
+
+    @Benchmark
+    public Image calculateEnergy() {
+        image.calculateEnergy();
+        return image;
+    }
+}
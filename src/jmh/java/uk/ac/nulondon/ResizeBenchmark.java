@@ -0,0 +1,87 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Removing against inserting the same number of seams (30% of the width) on a fresh image each time,
+ and removing them perPass seams per search:
+ mvn -P benchmark verify -Dcheckstyle.skip -Djmh.args="ResizeBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ResizeBenchmark {
+
+    @Param({"1024x768", "3840x2160"})
+    public String size;
+
+    @Param({"16"})
+    public int perPass;
+
+    private BufferedImage bufferedImage;
+    private Image image;
+    private int seams;
+
+    @Setup(Level.Trial)
+    public void decode() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        Random random = new Random(42);
+        bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                bufferedImage.setRGB(col, row, random.nextInt(0x1000000));
+            }
+        }
+        seams = width * 3 / 10;
+    }
+
+    @Setup(Level.Iteration)
+    public void load() {
+        image = new Image(bufferedImage);
+    }
+
+    @Benchmark
+    public Image carve() {
+        for (int i = 0; i < seams; i++) {
+            image.removeSeam(image.getLowestEnergySeamColumns());
+        }
+        return image;
+    }
+
+    @Benchmark
+    public Image carveInBatches() {
+        int remaining = seams;
+        while (remaining > 0) {
+            int[][] batch = image.getSeamsColumns(SeamCriterion.LOWEST_ENERGY, Math.min(perPass, remaining));
+            image.removeSeams(batch);
+            remaining -= batch.length;
+        }
+        return image;
+    }
+
+    @Benchmark
+    public Image enlarge() {
+        image.insertSeams(seams);
+        return image;
+    }
+}
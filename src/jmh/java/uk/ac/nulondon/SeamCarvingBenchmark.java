@@ -0,0 +1,124 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Throughput of the seam carving hot paths. Run with the benchmark profile:
+ mvn -P benchmark verify -Dcheckstyle.skip
+ which adds the GC profiler (allocation rate) and writes target/jmh-result.json.
+ Single benchmarks or sizes can be picked with -Djmh.args="lowestEnergySeam -p source=1024x1024".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeamCarvingBenchmark {
+
+    // Either WIDTHxHEIGHT for a synthetic noise image or the name of a file in src/main/resources
+    @Param({"256x256", "1024x1024", "3840x2160", "beach.png", "tree.png"})
+    public String source;
+
+    private BufferedImage bufferedImage;
+    private Image image;
+    private int[] seam;
+    private int[] seamColours;
+    private Image transposed;
+    private int[] horizontalSeam;
+    private int[] horizontalSeamColours;
+
+    @Setup
+    public void setup() throws IOException {
+        bufferedImage = load(source);
+        image = new Image(bufferedImage);
+        seam = image.getLowestEnergySeamColumns();
+        seamColours = image.seamColours(seam);
+        transposed = new Image(bufferedImage);
+        transposed.transpose();
+        horizontalSeam = transposed.getLowestEnergySeamColumns();
+        horizontalSeamColours = transposed.seamColours(horizontalSeam);
+    }
+
+    private static BufferedImage load(String source) throws IOException {
+        if (source.endsWith(".png")) {
+            return ImageIO.read(new File("src/main/resources", source));
+        }
+        String[] size = source.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        Random random = new Random(42);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                img.setRGB(col, row, random.nextInt(0x1000000));
+            }
+        }
+        return img;
+    }
+
+    @Benchmark
+    public Image load() {
+        return new Image(bufferedImage);
+    }
+
+    @Benchmark
+    public Image calculateEnergy() {
+        image.calculateEnergy();
+        return image;
+    }
+
+    @Benchmark
+    public int[] greenestSeam() {
+        return image.getGreenestSeamColumns();
+    }
+
+    @Benchmark
+    public int[] lowestEnergySeam() {
+        return image.getLowestEnergySeamColumns();
+    }
+
+    // Same search as lowestEnergySeam through a lambda, should cost the same
+    @Benchmark
+    public int[] customCriterionSeam() {
+        return image.getSeamColumns((row, col, argb, energy) -> -energy);
+    }
+
+    // Removing and re-inserting the same seam keeps the image size stable across invocations
+    @Benchmark
+    public Image removeAndAddSeam() {
+        image.removeSeam(seam);
+        image.addSeam(seam, seamColours);
+        return image;
+    }
+
+    // The same through the transposed view, which moves the pixels below a horizontal seam
+    @Benchmark
+    public Image removeAndAddHorizontalSeam() {
+        transposed.removeSeam(horizontalSeam);
+        transposed.addSeam(horizontalSeam, horizontalSeamColours);
+        return transposed;
+    }
+
+    @Benchmark
+    public BufferedImage toBufferedImage() {
+        return image.toBufferedImage();
+    }
+}
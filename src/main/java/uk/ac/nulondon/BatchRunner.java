@@ -0,0 +1,253 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/*
+ Resizes every image of a directory in one JVM. Each file gets a virtual thread, which spends
+ most of its life decoding, encoding and waiting, and two limits keep that from overloading the
+ machine:
+   - admission: a file only starts once the pixels of all files in flight, its own included, fit
+     the pixel budget, so the heap needed is known before anything is decoded. A file larger than
+     the whole budget waits until it can run alone.
+   - compute: building the energy and carving hold one of a fixed number of CPU permits, by
+     default one per processor, so virtual threads never oversubscribe the cores.
+ A file that cannot be read or carved only fails its own result, the rest of the run goes on, and
+ so does a file whose output name was already taken by an earlier file, like a.jpg after a.png.
+ */
+public class BatchRunner {
+
+    // Rough heap cost of one pixel while it is processed: decoded raster, slot arrays, search buffers, export
+    static final int BYTES_PER_PIXEL = 48;
+
+    // Pixel permits are handed out in blocks, so budgets beyond Integer.MAX_VALUE pixels still fit a Semaphore
+    private static final int PIXELS_PER_PERMIT = 1024;
+
+    // Columns around the coarse seam searched at full resolution, until setApproximateSearch says otherwise
+    private static final int DEFAULT_PYRAMID_BAND = 8;
+
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    // Outcome of one file: its size after carving, or why it failed
+    public record Result(Path file, boolean succeeded, int width, int height, long millis, String error) {
+        @Override
+        public String toString() {
+            return succeeded
+                    ? String.format(Locale.ROOT, "%s ok %dx%d in %d ms", file.getFileName(), width, height, millis)
+                    : String.format(Locale.ROOT, "%s failed after %d ms: %s", file.getFileName(), millis, error);
+        }
+    }
+
+    private final Path inputDir;
+    private final Path outputDir;
+
+    // Target size, -1 keeps the dimension
+    private int targetWidth = -1;
+    private int targetHeight = -1;
+
+    private ImageEditor.Criterion criterion = ImageEditor.Criterion.ENERGY;
+    private EnergyFunction energyFunction = EnergyFunction.SOBEL;
+    private int pyramidFactor = 1;
+    private int pyramidBand = DEFAULT_PYRAMID_BAND;
+    private int seamsPerPass = 1;
+
+    private int computePermits = Runtime.getRuntime().availableProcessors();
+    private long maxPixelsInFlight = Runtime.getRuntime().maxMemory() / 2 / BYTES_PER_PIXEL;
+
+    public BatchRunner(Path inputDir, Path outputDir) {
+        this.inputDir = inputDir;
+        this.outputDir = outputDir;
+    }
+
+    // Size every image is carved or enlarged to, -1 to keep a dimension
+    public void setTargetSize(int width, int height) {
+        targetWidth = width;
+        targetHeight = height;
+    }
+
+    public void setCriterion(ImageEditor.Criterion criterion) {
+        this.criterion = criterion;
+    }
+
+    public void setEnergyFunction(EnergyFunction energyFunction) {
+        this.energyFunction = energyFunction;
+    }
+
+    public void setApproximateSearch(int factor, int band) {
+        if (factor < 1 || band < 1) {
+            throw new IllegalArgumentException("Pyramid factor and band must be at least 1, got " + factor
+                    + " and " + band);
+        }
+        pyramidFactor = factor;
+        pyramidBand = band;
+    }
+
+    // Seams removed per seam search, see ImageEditor.setSeamsPerPass
+    public void setSeamsPerPass(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Seams per pass must be at least 1, got " + count);
+        }
+        seamsPerPass = count;
+    }
+
+    // Number of files whose energy and seams are computed at the same time
+    public void setComputePermits(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Compute permits must be at least 1, got " + permits);
+        }
+        computePermits = permits;
+    }
+
+    // Total pixels of the files that may be in flight at once, which bounds the heap the run needs
+    public void setMaxPixelsInFlight(long pixels) {
+        if (pixels < 1) {
+            throw new IllegalArgumentException("Pixels in flight must be at least 1, got " + pixels);
+        }
+        maxPixelsInFlight = pixels;
+    }
+
+    /*
+     Processes every regular file of the input directory, writing a PNG of the same name to the
+     output directory, and returns one result per file in file name order. Files are never written
+     over each other: when several files map to the same PNG name, only the first one is processed.
+     */
+    public List<Result> run() throws IOException {
+        Files.createDirectories(outputDir);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(inputDir)) {
+            files = listing.filter(Files::isRegularFile).sorted().toList();
+        }
+        int pixelPermits = (int) Math.min(Integer.MAX_VALUE,
+                (maxPixelsInFlight + PIXELS_PER_PERMIT - 1) / PIXELS_PER_PERMIT);
+        Semaphore admission = new Semaphore(pixelPermits, true);
+        Semaphore compute = new Semaphore(computePermits, true);
+
+        List<Future<Result>> futures = new ArrayList<>(files.size());
+        Map<String, Path> outputNames = new HashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path file : files) {
+                Path owner = outputNames.putIfAbsent(pngName(file), file);
+                if (owner != null) {
+                    futures.add(CompletableFuture.completedFuture(new Result(file, false, 0, 0, 0,
+                            "output " + pngName(file) + " is already written for " + owner.getFileName())));
+                } else {
+                    futures.add(executor.submit(() -> process(file, admission, pixelPermits, compute)));
+                }
+            }
+        }
+        List<Result> results = new ArrayList<>(files.size());
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the batch", e);
+            } catch (ExecutionException e) {
+                // process() turns every failure into a result, this is a bug rather than a bad file
+                throw new IllegalStateException("Batch task failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    // Runs one file start to end, never throws
+    private Result process(Path file, Semaphore admission, int pixelPermits, Semaphore compute) {
+        long start = System.nanoTime();
+        try {
+            // The header is enough to know the size, so admission comes before decoding
+            long pixels = pixelsOf(file);
+            int permits = (int) Math.min(pixelPermits, (pixels + PIXELS_PER_PERMIT - 1) / PIXELS_PER_PERMIT);
+            admission.acquire(permits);
+            try {
+                BufferedImage img = ImageIO.read(file.toFile());
+                if (img == null) {
+                    throw new IOException("Not a readable image");
+                }
+                BufferedImage carved;
+                compute.acquire();
+                try {
+                    carved = carve(img);
+                } finally {
+                    compute.release();
+                }
+                ImageIO.write(carved, "png", outputDir.resolve(pngName(file)).toFile());
+                return new Result(file, true, carved.getWidth(), carved.getHeight(), millisSince(start), null);
+            } finally {
+                admission.release(permits);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(file, false, 0, 0, millisSince(start), "interrupted");
+        } catch (Exception e) {
+            String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            return new Result(file, false, 0, 0, millisSince(start), message);
+        }
+    }
+
+    // Carves or enlarges a decoded image to the target size and renders the result
+    private BufferedImage carve(BufferedImage img) throws IOException {
+        try (ImageEditor editor = new ImageEditor()) {
+            editor.setEnergyFunction(energyFunction);
+            editor.setApproximateSearch(pyramidFactor, pyramidBand);
+            editor.setSeamsPerPass(seamsPerPass);
+            editor.load(img);
+            if (targetWidth > editor.getImage().getWidth()) {
+                editor.enlargeToWidth(targetWidth);
+            } else if (targetWidth >= 0) {
+                editor.carveToWidth(targetWidth, criterion);
+            }
+            if (targetHeight > editor.getImage().getHeight()) {
+                editor.enlargeToHeight(targetHeight);
+            } else if (targetHeight >= 0) {
+                editor.carveToHeight(targetHeight, criterion);
+            }
+            return editor.getImage().toBufferedImage();
+        }
+    }
+
+    // Width times height from the image header, without decoding the pixels
+    private static long pixelsOf(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // The file name with its extension replaced by .png
+    private static String pngName(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + ".png";
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / NANOS_PER_MILLI;
+    }
+}
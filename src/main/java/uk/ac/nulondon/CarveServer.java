@@ -0,0 +1,341 @@
+package uk.ac.nulondon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ Local HTTP service that resizes images, so other processes do not start a JVM per image:
+
+   POST /carve?width=800&height=600&criterion=energy   body: the image, response: the PNG
+
+ width and height may each be left out to keep that dimension, sizes above the current one
+ insert seams, and criterion is greenest or energy (the default), as for ImageEditor.
+
+ Exchanges are accepted on virtual threads and carved on a fixed number of workers. At most
+ workers + queueCapacity requests are admitted at a time; any request beyond that is answered
+ 503 at once instead of queueing without bound. A request that has not finished within the
+ timeout is answered 503 as well, and its worker stops at the next seam; the request keeps its
+ slot until the worker has stopped. The timeout starts before the body is read, so a client that
+ has not sent all of it in time is answered 408 and gives up its slot. Images whose header
+ gives more pixels than the limit, before or after resizing, are answered 413 without being
+ decoded. Each worker keeps one ImageEditor, so every image it carves reuses the seam search
+ buffers warmed up by the last one.
+ */
+public class CarveServer {
+
+    // Largest accepted request body
+    static final int MAX_BODY_BYTES = 64 * 1024 * 1024;
+
+    // Status codes of the responses
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int REQUEST_TIMEOUT = 408;
+    private static final int PAYLOAD_TOO_LARGE = 413;
+    private static final int INTERNAL_ERROR = 500;
+    private static final int UNAVAILABLE = 503;
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final ExecutorService exchanges = Executors.newVirtualThreadPerTaskExecutor();
+    // Request bodies are read on platform threads: the server's body stream pins a virtual thread
+    // while it blocks, which could keep the exchange thread timing the upload from running
+    private final ExecutorService uploads = Executors.newCachedThreadPool();
+    private final Semaphore admitted;
+    private final int capacity;
+    private final Duration timeout;
+
+    // Largest image accepted, counted after enlarging, so that every worker can hold one at a time
+    private long maxPixels;
+
+    // The editor of each worker thread, reused for every request the worker carves
+    private final ThreadLocal<ImageEditor> editors = ThreadLocal.withInitial(ImageEditor::new);
+
+    public CarveServer(InetSocketAddress address, int workerCount, int queueCapacity, Duration timeout)
+            throws IOException {
+        if (workerCount < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Need at least 1 worker and a queue of at least 0, got "
+                    + workerCount + " and " + queueCapacity);
+        }
+        this.workers = Executors.newFixedThreadPool(workerCount);
+        this.capacity = workerCount + queueCapacity;
+        this.admitted = new Semaphore(capacity);
+        this.timeout = timeout;
+        this.maxPixels = Runtime.getRuntime().maxMemory() / 2 / workerCount / BatchRunner.BYTES_PER_PIXEL;
+        server = HttpServer.create(address, 0);
+        server.setExecutor(exchanges);
+        server.createContext("/carve", this::handle);
+    }
+
+    // Largest number of pixels of a request, before or after resizing; larger ones are answered 413
+    public void setMaxPixels(long pixels) {
+        if (pixels < 1) {
+            throw new IllegalArgumentException("Need at least 1 pixel, got " + pixels);
+        }
+        maxPixels = pixels;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests, waiting at most delaySeconds for the ones being answered
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        workers.shutdownNow();
+        uploads.shutdownNow();
+        exchanges.shutdownNow();
+    }
+
+    // The port the server listens on, useful when it was started on port 0
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Requests admitted and not yet answered, or answered and still being carved
+    int inFlight() {
+        return capacity - admitted.availablePermits();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, METHOD_NOT_ALLOWED, "Use POST with the image as the body");
+                return;
+            }
+            if (!admitted.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, UNAVAILABLE, "Too many requests in flight");
+                return;
+            }
+            Job job;
+            try {
+                job = receive(exchange);
+            } catch (IOException | RuntimeException e) {
+                admitted.release();
+                throw e;
+            }
+            if (job == null) {
+                admitted.release();
+            } else {
+                answer(exchange, job);
+            }
+        }
+    }
+
+    // An admitted request whose body has been received and whose image is small enough to carve
+    private record Job(byte[] body, int width, int height, ImageEditor.Criterion criterion, long deadline) {
+    }
+
+    // Reads the parameters and the body, returns null if the request has already been answered
+    private Job receive(HttpExchange exchange) throws IOException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        int width;
+        int height;
+        ImageEditor.Criterion criterion;
+        try {
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            width = Integer.parseInt(query.getOrDefault("width", "-1"));
+            height = Integer.parseInt(query.getOrDefault("height", "-1"));
+            criterion = ImageEditor.Criterion.valueOf(query.getOrDefault("criterion", "energy")
+                    .toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, BAD_REQUEST, "Bad parameters: " + e.getMessage());
+            return null;
+        }
+        // The upload counts against the timeout too, so a slow client cannot keep its slot
+        Future<byte[]> upload = uploads.submit(() -> readBody(exchange));
+        byte[] body;
+        try {
+            body = upload.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            respond(exchange, REQUEST_TIMEOUT, "Body not received within " + timeout.toMillis() + " ms");
+            // Interrupting the blocked read closes the connection
+            upload.cancel(true);
+            return null;
+        } catch (InterruptedException e) {
+            upload.cancel(true);
+            Thread.currentThread().interrupt();
+            respond(exchange, UNAVAILABLE, "Server is stopping");
+            return null;
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read the request body", e.getCause());
+        }
+        if (body.length > MAX_BODY_BYTES) {
+            respond(exchange, PAYLOAD_TOO_LARGE, "Images are limited to " + MAX_BODY_BYTES + " bytes");
+            return null;
+        }
+        // The header gives the size before anything is decoded, so a small file cannot expand into a huge bitmap
+        Dimension size;
+        try {
+            size = headerSize(body);
+        } catch (IOException e) {
+            respond(exchange, BAD_REQUEST, e.getMessage());
+            return null;
+        }
+        long pixels = (long) Math.max(size.width, width) * Math.max(size.height, height);
+        if (pixels > maxPixels) {
+            respond(exchange, PAYLOAD_TOO_LARGE, "Images are limited to " + maxPixels + " pixels, this one needs "
+                    + pixels);
+            return null;
+        }
+        return new Job(body, width, height, criterion, deadline);
+    }
+
+    /*
+     Carves a job on a worker and answers with the result. The job's permit is released by the
+     worker once it is done, even after the request was answered 503 for timing out, so requests
+     still being carved always count against the admission limit. A job that no worker has picked
+     up yet when it is given up never runs, and its permit is released here.
+     */
+    private void answer(HttpExchange exchange, Job job) throws IOException {
+        // Set by whichever side gets the job first, which then releases the permit
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<byte[]> carved;
+        try {
+            carved = workers.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return carve(job.body(), job.width(), job.height(), job.criterion());
+                } finally {
+                    admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            respond(exchange, UNAVAILABLE, "Server is stopping");
+            return;
+        }
+        try {
+            byte[] png = carved.get(Math.max(0, job.deadline() - System.nanoTime()), TimeUnit.NANOSECONDS);
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(OK, png.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(png);
+            }
+        } catch (TimeoutException e) {
+            // Interrupts the worker, which gives up at the next seam
+            giveUp(carved, claimed);
+            respond(exchange, UNAVAILABLE, "Timed out after " + timeout.toMillis() + " ms");
+        } catch (InterruptedException e) {
+            giveUp(carved, claimed);
+            Thread.currentThread().interrupt();
+            respond(exchange, UNAVAILABLE, "Server is stopping");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            int status = cause instanceof IllegalArgumentException || cause instanceof IOException
+                    ? BAD_REQUEST : INTERNAL_ERROR;
+            respond(exchange, status, String.valueOf(cause.getMessage()));
+        }
+    }
+
+    // Cancels a job, releasing its permit if no worker has started it
+    private void giveUp(Future<byte[]> carved, AtomicBoolean claimed) {
+        if (claimed.compareAndSet(false, true)) {
+            admitted.release();
+        }
+        carved.cancel(true);
+    }
+
+    // Width and height from the image header, without decoding the pixels
+    private static Dimension headerSize(byte[] body) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Body is not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // At most one byte more than MAX_BODY_BYTES, so an oversized body is detected without reading all of it
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+    }
+
+    // Worker side: decode, resize with this worker's editor and encode
+    private byte[] carve(byte[] body, int width, int height, ImageEditor.Criterion criterion) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(body));
+        if (img == null) {
+            throw new IOException("Body is not a readable image");
+        }
+        ImageEditor editor = editors.get();
+        editor.load(img);
+        if (width > editor.getImage().getWidth()) {
+            editor.enlargeToWidth(width);
+        } else if (width >= 0) {
+            editor.carveToWidth(width, criterion);
+        }
+        if (height > editor.getImage().getHeight()) {
+            editor.enlargeToHeight(height);
+        } else if (height >= 0) {
+            editor.carveToHeight(height, criterion);
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(editor.getImage().toBufferedImage(), "png", png);
+        return png.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] text = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, text.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(text);
+        }
+    }
+
+    // Parameters of a raw query string, the last value wins
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.nulondon;
+
+import java.util.Locale;
+
+/*
+ How the energy of a pixel is computed from the luminance of its neighbourhood. Image keeps the
+ luminance of every pixel in a primitive plane, so energy functions never look at colours and
+ switching between them only recomputes energies.
+
+ energy() sees three luminance rows of the underlying image: above and below are null for the
+ first and last row, and width is the number of valid columns. It may only read the 3x3
+ neighbourhood of col, which is what lets Image recompute energies around a seam only.
+
+ Forward energy also charges a seam for the edges it creates between pixels that become
+ neighbours when it is removed. That cost depends on the step the seam takes between two rows,
+ so it is added by the seam search through stepCost() rather than stored per pixel.
+ */
+public interface EnergyFunction {
+
+    // Sobel gradient magnitude of the luminance, border pixels use their luminance
+    EnergyFunction SOBEL = new Sobel();
+
+    // Central difference gradient magnitude, border pixels repeat their edge neighbours
+    EnergyFunction DUAL_GRADIENT = new DualGradient();
+
+    // Forward energy of Rubinstein, Shamir and Avidan: no pixel energy, only step costs
+    EnergyFunction FORWARD = new Forward();
+
+    double energy(double[] above, double[] current, double[] below, int col, int width);
+
+    // Energies of the columns from..to-1 of a row, written to the same columns of out
+    default void energyRow(double[] above, double[] current, double[] below, double[] out, int from, int to,
+                           int width) {
+        for (int col = from; col < to; col++) {
+            out[col] = energy(above, current, below, col, width);
+        }
+    }
+
+    // Whether the seam search has to add stepCost() for every step between two rows
+    default boolean hasStepCost() {
+        return false;
+    }
+
+    /*
+     Cost of the edges created when a seam passes through a pixel coming from the row above.
+     upper is the luminance of the pixel above, left and right those of its neighbours in the row
+     (the pixel itself at the borders). direction is -1, 0 or +1 for a parent left of, above or
+     right of the pixel.
+     */
+    default double stepCost(double upper, double left, double right, int direction) {
+        return 0;
+    }
+
+    // Looks up a built-in energy function by name: sobel, sobel-vector, dual or forward
+    static EnergyFunction forName(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "sobel" -> SOBEL;
+            case "sobel-vector" -> vectorizedSobel();
+            case "dual" -> DUAL_GRADIENT;
+            case "forward" -> FORWARD;
+            default -> throw new IllegalArgumentException("Unknown energy function " + name
+                    + ", expected sobel, sobel-vector, dual or forward");
+        };
+    }
+
+    /*
+     Sobel computed several columns at a time with the incubating Vector API. The JVM only has it
+     when started with --add-modules jdk.incubator.vector, otherwise this is plain SOBEL.
+     */
+    static EnergyFunction vectorizedSobel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SOBEL;
+        }
+        try {
+            // Loaded by name, so nothing links against the incubator module unless it is there
+            return (EnergyFunction) Class.forName("uk.ac.nulondon.VectorSobel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SOBEL;
+        }
+    }
+
+    final class Sobel implements EnergyFunction {
+        private Sobel() {
+        }
+
+        @Override
+        public double energy(double[] above, double[] current, double[] below, int col, int width) {
+            if (above == null || below == null || col == 0 || col == width - 1) {
+                return current[col];
+            }
+            // Get the luminance of the neighbouring pixels around the 'above' pixel
+            double a = above[col - 1];
+            double b = above[col];
+            double c = above[col + 1];
+
+            // Get the luminance of the neighbouring pixels around the 'current' pixel
+            double d = current[col - 1];
+            double f = current[col + 1];
+
+            // Get the luminance of the neighbouring pixels around the 'below' pixel
+            double g = below[col - 1];
+            double h = below[col];
+            double i = below[col + 1];
+
+            // Calculate the horizontal energy component by considering the pixel's left-right neighbors
+            double hEnergy = (a + 2 * d + g) - (c + 2 * f + i);
+
+            // Calculate the vertical energy component by considering the pixel's up-down neighbors
+            double vEnergy = (a + 2 * b + c) - (g + 2 * h + i);
+
+            // Return the total energy by calculating the Euclidean distance between horizontal and vertical energies
+            return Math.sqrt(hEnergy * hEnergy + vEnergy * vEnergy);
+        }
+    }
+
+    final class DualGradient implements EnergyFunction {
+        private DualGradient() {
+        }
+
+        @Override
+        public double energy(double[] above, double[] current, double[] below, int col, int width) {
+            double dx = current[Math.min(width - 1, col + 1)] - current[Math.max(0, col - 1)];
+            double dy = (below == null ? current : below)[col] - (above == null ? current : above)[col];
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    final class Forward implements EnergyFunction {
+        private Forward() {
+        }
+
+        @Override
+        public double energy(double[] above, double[] current, double[] below, int col, int width) {
+            return 0;
+        }
+
+        @Override
+        public boolean hasStepCost() {
+            return true;
+        }
+
+        @Override
+        public double stepCost(double upper, double left, double right, int direction) {
+            // The neighbours left and right of the seam always become adjacent
+            double cost = Math.abs(right - left);
+            if (direction < 0) {
+                cost += Math.abs(upper - left);
+            } else if (direction > 0) {
+                cost += Math.abs(upper - right);
+            }
+            return cost;
+        }
+    }
+}
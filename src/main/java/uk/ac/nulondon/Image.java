@@ -1,305 +1,1662 @@
+package uk.ac.nulondon;
 
-    package uk.ac.nulondon;
-
-    import java.awt.Color;
-    import java.awt.image.BufferedImage;
-    import java.util.ArrayList;
-    import java.util.Collection;
-    import java.util.List;
-    import java.util.function.Function;
-    
-    public class Image {
-        private final List<Pixel> rows;
-    
-        private int width;
-        private int height;
-    
-    
-        public Image(BufferedImage img) {
-            width = img.getWidth();
-            height = img.getHeight();
-            rows = new ArrayList<>();
-            Pixel current = null;
-            for (int row = 0; row < height; row++) {
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ Pixels are stored as packed ARGB ints in a single slot array. Every row keeps an index
+ that maps logical columns to slots, so removing or inserting a seam only shifts ints in
+ the row index and never moves colour or energy data. Removed pixels leave dead slots
+ behind which are reclaimed by compact() once they outnumber the live ones.
+
+ transpose() flips the image into a transposed view of the same row index: rows become columns,
+ so every seam operation finds and edits horizontal seams of the underlying pixels instead of
+ vertical ones. Nothing is copied, only the way the index is read changes.
+
+ Luminance is not stored: energy passes average the channels of the packed colours into a few
+ rolling row buffers, which is cheaper than loading a plane of doubles and saves 8 bytes per slot.
+ */
+public class Image {
+    // Energy passes over fewer pixels than this stay on the calling thread, and so do stripes
+    static final int PARALLEL_THRESHOLD = 32 * 1024;
+
+    // Alpha bits of a fully opaque packed colour
+    private static final int OPAQUE = 0xFF000000;
+
+    // Seam searches only split rows into parallel chunks when every chunk gets at least this many columns
+    static final int PARALLEL_DP_MIN_COLUMNS = 2048;
+
+    // Initial capacity of the edit stack, which goes back to it whenever the stack is forgotten
+    private static final int INITIAL_EDITS = 16;
+
+    // SplitMix64 constants: the golden ratio increment, then the shifts and multipliers of its finalizer
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int MIX_SHIFT_1 = 30;
+    private static final long MIX_MULTIPLIER_1 = 0xBF58476D1CE4E5B9L;
+    private static final int MIX_SHIFT_2 = 27;
+    private static final long MIX_MULTIPLIER_2 = 0x94D049BB133111EBL;
+    private static final int MIX_SHIFT_3 = 31;
+
+    // Packed ARGB colour of every slot
+    private int[] pixels;
+
+    // Energy of every slot, parallel to pixels
+    private double[] energies;
+
+    // How energies are computed from the luminance
+    private EnergyFunction energyFunction;
+
+    // Number of slots handed out so far (live and dead)
+    private int slots;
+
+    // rows[row][col] is the slot holding the pixel at that logical position, rows past height are spare
+    private int[][] rows;
+
+    /*
+     Identifies the pixels of the image, see getVersion(). editCodes and versionsBefore are a stack
+     of the edits that led to the current version, so an edit that reverses the last one can go
+     back to the version before it. It is forgotten whenever the undo history is cleared.
+     */
+    private long version;
+    private long[] editCodes = new long[INITIAL_EDITS];
+    private long[] versionsBefore = new long[INITIAL_EDITS];
+    private int edits;
+
+    // Number of insertSeams() calls, which make their versions unique
+    private long insertions;
+
+    // Width and height of the underlying image, regardless of the view
+    private int width;
+    private int height;
+
+    // Whether rows and columns of the view are swapped
+    private boolean transposed;
+
+    // Hold the slots of view rows gathered from physical columns
+    private int[] columnScratch;
+    private int[] aboveScratch;
+
+    // Pool for parallel energy passes and seam searches, null to stay on the calling thread
+    private ForkJoinPool energyPool;
+
+    // Where energy passes, seam searches and seam edits are recorded
+    private Metrics metrics = Metrics.DISABLED;
+
+    /*
+     Columns whose energy is out of date, per row. Seam edits only change the energy next to the
+     seam, so instead of recomputing the whole image these bands are recomputed on demand.
+     A row is clean when dirtyFrom > dirtyTo.
+     */
+    private int[] dirtyFrom;
+    private int[] dirtyTo;
+    private boolean energyDirty;
+
+    // Luminance rows used to recompute the dirty bands
+    private double[] bandAbove;
+    private double[] bandCurrent;
+    private double[] bandBelow;
+    private double[] bandEnergies;
+
+    // Seam search buffers, kept between searches
+    private double[] previousValues;
+    private double[] currentValues;
+    private byte[] directions;
+
+    // Pixels already used by a seam of a multi-seam search, in view row order
+    private boolean[] taken;
+    // Bottom row columns of a multi-seam search, best total first, and the merge sort's scratch
+    private int[] bottomOrder;
+    private int[] orderScratch;
+
+    /*
+     Seam painted over exported images, as columns of the view it was highlighted in, null for none.
+     It is not part of the pixels, so any seam edit makes it stale and drops it.
+     */
+    private int[] overlaySeam;
+    private boolean overlayTransposed;
+    private int overlayColour;
+
+    // Pyramid search: downsampling factor (1 for exact searches) and half width of the refinement band
+    private int pyramidFactor = 1;
+    private int pyramidBand;
+
+    // Pyramid search buffers: the coarse grid, its seam search and the band of every full resolution row
+    private double[] coarseValues;
+    private byte[] coarseDirections;
+    private int[] bandFrom;
+    private int[] bandTo;
+
+
+    public Image(BufferedImage img) {
+        this(img, null);
+    }
+
+    // Creates an image whose energy passes run on the given pool, null to stay on the calling thread
+    public Image(BufferedImage img, ForkJoinPool energyPool) {
+        this(img, energyPool, EnergyFunction.SOBEL);
+    }
+
+    // Creates an image whose energy is computed by the given function
+    public Image(BufferedImage img, ForkJoinPool energyPool, EnergyFunction energyFunction) {
+        this(img.getWidth(), img.getHeight(), readArgb(img), new double[img.getWidth() * img.getHeight()],
+                energyFunction);
+        this.energyPool = energyPool;
+        // The only full energy pass, later edits are tracked as dirty bands
+        calculateEnergy();
+    }
+
+    /*
+     Restores an image from its pixels and energies in row order, as saved in a session. The arrays
+     are used as the slot arrays and the energies are trusted, so no energy pass runs.
+     */
+    Image(int width, int height, int[] pixels, double[] energies, EnergyFunction energyFunction) {
+        this.energyFunction = energyFunction;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.energies = energies;
+        rows = new int[height][];
+        for (int row = 0; row < height; row++) {
+            int[] slotsInRow = new int[width];
+            for (int col = 0; col < width; col++) {
+                slotsInRow[col] = slots++;
+            }
+            rows[row] = slotsInRow;
+        }
+        dirtyFrom = new int[height];
+        dirtyTo = new int[height];
+        Arrays.fill(dirtyFrom, Integer.MAX_VALUE);
+        Arrays.fill(dirtyTo, -1);
+    }
+
+    /*
+     Takes over the energy band and seam search buffers of an image that is no longer used, so a
+     process that edits image after image does not allocate them again each time. Buffers that are
+     too small for this image are still replaced when first used.
+     */
+    void reuseBuffersOf(Image previous) {
+        columnScratch = previous.columnScratch;
+        aboveScratch = previous.aboveScratch;
+        bandAbove = previous.bandAbove;
+        bandCurrent = previous.bandCurrent;
+        bandBelow = previous.bandBelow;
+        bandEnergies = previous.bandEnergies;
+        previousValues = previous.previousValues;
+        currentValues = previous.currentValues;
+        directions = previous.directions;
+        taken = previous.taken;
+        bottomOrder = previous.bottomOrder;
+        orderScratch = previous.orderScratch;
+        coarseValues = previous.coarseValues;
+        coarseDirections = previous.coarseDirections;
+        bandFrom = previous.bandFrom;
+        bandTo = previous.bandTo;
+    }
+
+    /*
+     Copies the pixels and up to date energies of the underlying image into the given arrays in
+     row order, whatever the view. Used to save sessions.
+     */
+    void copyState(int[] pixelsOut, double[] energiesOut) {
+        updateEnergy();
+        for (int row = 0; row < height; row++) {
+            int[] slotsInRow = rows[row];
+            for (int col = 0; col < width; col++) {
+                pixelsOut[row * width + col] = pixels[slotsInRow[col]];
+                energiesOut[row * width + col] = energies[slotsInRow[col]];
+            }
+        }
+    }
+
+    // All pixels of img as packed ARGB in row order
+    private static int[] readArgb(BufferedImage img) {
+        int[] argb = new int[img.getWidth() * img.getHeight()];
+        readArgb(img, argb);
+        return argb;
+    }
+
+    /*
+     Reads all pixels of img as packed ARGB in row order. Int-packed images are copied straight
+     out of their raster, every other type goes through one bulk getRGB call.
+     */
+    private static void readArgb(BufferedImage img, int[] target) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] data = intRasterData(img);
+        if (data == null) {
+            img.getRGB(0, 0, width, height, target, 0, width);
+            return;
+        }
+        WritableRaster raster = img.getRaster();
+        int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        int offset = raster.getDataBuffer().getOffset();
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(data, offset + row * stride, target, row * width, width);
+        }
+        if (img.getType() == BufferedImage.TYPE_INT_RGB) {
+            // The raster of an RGB image leaves the alpha byte unset, getRGB reports it as opaque
+            for (int i = 0; i < target.length; i++) {
+                target[i] |= OPAQUE;
+            }
+        }
+    }
+
+    // The backing array of an TYPE_INT_RGB or TYPE_INT_ARGB image that is not a sub-image, null otherwise
+    private static int[] intRasterData(BufferedImage img) {
+        int type = img.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        WritableRaster raster = img.getRaster();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferInt buffer)) {
+            return null;
+        }
+        return buffer.getData();
+    }
+
+    /*
+     Exports the view as a TYPE_INT_RGB image, or as TYPE_INT_ARGB when any pixel is not fully
+     opaque so transparency survives a round trip. Pixels are written straight into the raster,
+     and a highlighted seam is painted over them.
+     */
+    public BufferedImage toBufferedImage() {
+        boolean opaque = isOpaque() && (overlaySeam == null || (overlayColour & OPAQUE) == OPAQUE);
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage image = new BufferedImage(getWidth(), getHeight(), type);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < height; row++) {
+            int[] slotsInRow = rows[row];
+            if (transposed) {
+                // Physical row becomes an output column
                 for (int col = 0; col < width; col++) {
-                    Pixel pixel = new Pixel(img.getRGB(col, row));
-                    if (col == 0) {
-                        rows.add(pixel);
-                    } else {
-                        current.right = pixel;
-                        pixel.left = current;
-                    }
-                    current = pixel;
+                    data[col * height + row] = pixels[slotsInRow[col]];
+                }
+            } else {
+                int offset = row * width;
+                for (int col = 0; col < width; col++) {
+                    data[offset + col] = pixels[slotsInRow[col]];
                 }
             }
         }
-    
-        public BufferedImage toBufferedImage() {
-            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            for (int row = 0; row < height; row++) {
-                Pixel pixel = rows.get(row);
-                int col = 0;
-                while (pixel != null) {
-                    image.setRGB(col++, row, pixel.color.getRGB());
-                    pixel = pixel.right;
+        if (overlaySeam != null) {
+            paintOverlay(data);
+        }
+        return image;
+    }
+
+    // Paints the highlighted seam into exported pixel data of the current view
+    private void paintOverlay(int[] data) {
+        for (int line = 0; line < overlaySeam.length; line++) {
+            int row = overlayTransposed ? overlaySeam[line] : line;
+            int col = overlayTransposed ? line : overlaySeam[line];
+            data[transposed ? col * height + row : row * width + col] = overlayColour;
+        }
+    }
+
+    // Whether every pixel of the image has full alpha
+    private boolean isOpaque() {
+        for (int row = 0; row < height; row++) {
+            int[] slotsInRow = rows[row];
+            for (int col = 0; col < width; col++) {
+                if ((pixels[slotsInRow[col]] & OPAQUE) != OPAQUE) {
+                    return false;
                 }
             }
-            return image;
-        }
-    
-        public int getWidth() {
-            return width;
-        }
-    
-        public int getHeight() {
-            return height;
-        }
-    
-        double energy(Pixel above, Pixel current, Pixel below) {
-    
-            // Checking if any of the neighboring pixels are null or invalid
-            if (above == null || below == null || current.left == null || current.right == null ||
-                    above.left == null || above.right == null || below.left == null || below.right == null) {
-                return current.brightness();
-            }
-            // Get the brightness values of the neighboring pixels around the 'above' pixel
-            double a = above.left.brightness();   // Brightness of the pixel to the left of the 'above' pixel
-            double b = above.brightness();        // Brightness of the 'above' pixel itself
-            double c = above.right.brightness(); // Brightness of the pixel to the right of the 'above' pixel
-    
-            // Get the brightness values of the neighboring pixels around the 'current' pixel
-            double d = current.left.brightness(); // Brightness of the pixel to the left of the 'current' pixel
-            double f = current.right.brightness(); // Brightness of the pixel to the right of the 'current' pixel
-    
-            // Get the brightness values of the neighboring pixels around the 'below' pixel
-            double g = below.left.brightness();  // Brightness of the pixel to the left of the 'below' pixel
-            double h = below.brightness();       // Brightness of the 'below' pixel itself
-            double i = below.right.brightness(); // Brightness of the pixel to the right of the 'below' pixel
-    
-            // Calculate the horizontal energy component by considering the pixel's left-right neighbors
-            double h_energy = (a + 2 * d + g) - (c + 2 * f + i);
-    
-            // Calculate the vertical energy component by considering the pixel's up-down neighbors
-            double v_energy = (a + 2 * b + c) - (g + 2 * h + i);
-    
-            // Return the total energy by calculating the Euclidean distance between horizontal and vertical energies
-            return Math.sqrt(h_energy * h_energy + v_energy * v_energy);
-        }
-    
-    // Gets pixel at the required row and column
-    private Pixel getPixelByRowCol(int row, int column) {
+        }
+        return true;
+    }
 
-        // Retrieves the head of the row
-        Pixel pixel = rows.get(row);
+    // Width of the view
+    public int getWidth() {
+        return transposed ? height : width;
+    }
 
-        // Iterate through the linked list to find the specified pixel
-        for (int i = 0; i < column; i++) {
-            pixel = pixel.right;
+    // Height of the view
+    public int getHeight() {
+        return transposed ? width : height;
+    }
+
+    // Swaps rows and columns of the view, in constant time
+    public void transpose() {
+        transposed = !transposed;
+    }
+
+    public boolean isTransposed() {
+        return transposed;
+    }
+
+    // Slot of the pixel at the given row and column of the view
+    private int slotAt(int row, int col) {
+        return transposed ? rows[col][row] : rows[row][col];
+    }
+
+    // Slots of one row of the view, a transposed row is gathered from a physical column into scratch
+    private int[] slotsOfRow(int row, int[] scratch) {
+        if (!transposed) {
+            return rows[row];
         }
+        gatherRow(row, scratch, 0, height);
+        return scratch;
+    }
 
-        // Returns the pixel at the given column and row
+    // Copies the slots of the columns fromCol..toCol-1 of a transposed view row into target
+    private void gatherRow(int row, int[] target, int fromCol, int toCol) {
+        for (int col = fromCol; col < toCol; col++) {
+            target[col] = rows[col][row];
+        }
+    }
+
+    // Fills target with the luminance of every pixel in the given row
+    private void loadLuminance(int row, double[] target) {
+        int[] slotsInRow = rows[row];
+        for (int col = 0; col < width; col++) {
+            target[col] = Pixel.brightness(pixels[slotsInRow[col]]);
+        }
+    }
+
+    // Gets a view of the pixel at the required row and column
+    private Pixel getPixelByRowCol(int row, int column) {
+        int slot = slotAt(row, column);
+        Pixel pixel = new Pixel(row, column, pixels[slot]);
+        pixel.energy = energies[slot];
         return pixel;
     }
-    
-        public void calculateEnergy() {
-            // Loop through all rows and columns
-            for (int row = 0; row < height; row++) {
-                for (int col = 0; col < width; col++) {
-                    Pixel current = getPixelByRowCol(row, col);
-                    // For boundary pixels, use brightness (as specified)
-                    if (row == 0 || row == height - 1 || col == 0 || col == width - 1) {
-                        current.energy = current.brightness();
-                    } else {
-                        // Get neighboring pixels using the linked structure
-                        Pixel above = getPixelByRowCol(row - 1, col);
-                        Pixel below = getPixelByRowCol(row + 1, col);
-                        current.energy = energy(above, current, below);
-                    }
+
+    /*
+     Calculates the energy of every pixel in a single sweep. Three luminance rows (above, current
+     and below) roll down the image, so every luminance is computed once and every pixel is
+     visited once: O(width * height). With an energy pool set, large images are split into row
+     stripes that are swept in parallel.
+     */
+    public void calculateEnergy() {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        if (energyPool == null || width * height <= PARALLEL_THRESHOLD) {
+            calculateEnergy(0, height);
+        } else {
+            energyPool.invoke(new EnergyStripe(0, height));
+        }
+        Arrays.fill(dirtyFrom, Integer.MAX_VALUE);
+        Arrays.fill(dirtyTo, -1);
+        energyDirty = false;
+        metrics.record(Metrics.Operation.ENERGY, start, allocated);
+    }
+
+    // Sweeps the rows fromRow..toRow-1, reading one row beyond the stripe on either side
+    private void calculateEnergy(int fromRow, int toRow) {
+        double[] above = new double[width];
+        double[] current = new double[width];
+        double[] below = new double[width];
+        double[] rowEnergies = new double[width];
+        if (fromRow > 0) {
+            loadLuminance(fromRow - 1, above);
+        }
+        loadLuminance(fromRow, current);
+        for (int row = fromRow; row < toRow; row++) {
+            boolean last = row == height - 1;
+            if (!last) {
+                loadLuminance(row + 1, below);
+            }
+            int[] slotsInRow = rows[row];
+            energyFunction.energyRow(row == 0 ? null : above, current, last ? null : below, rowEnergies, 0, width,
+                    width);
+            for (int col = 0; col < width; col++) {
+                energies[slotsInRow[col]] = rowEnergies[col];
+            }
+            // Roll the cursor one row down
+            double[] temp = above;
+            above = current;
+            current = below;
+            below = temp;
+        }
+    }
+
+    /*
+     Computes the energy of a stripe of rows, splitting it in half until stripes are small enough.
+     Every pixel's energy only reads its 3x3 neighbourhood and each stripe writes its own rows,
+     so the result is the same as the sequential pass whatever the scheduling.
+     */
+    private final class EnergyStripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromRow;
+        private final int toRow;
+
+        EnergyStripe(int fromRow, int toRow) {
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow < 2 || (toRow - fromRow) * width <= PARALLEL_THRESHOLD) {
+                calculateEnergy(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new EnergyStripe(fromRow, middle), new EnergyStripe(middle, toRow));
+        }
+    }
+
+    // Sets where energy passes, seam searches and seam edits are recorded
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Switches to another energy function and recomputes every energy from the colours
+    public void setEnergyFunction(EnergyFunction energyFunction) {
+        this.energyFunction = energyFunction;
+        calculateEnergy();
+    }
+
+    public EnergyFunction getEnergyFunction() {
+        return energyFunction;
+    }
+
+    /*
+     Makes seam searches approximate: they run on a copy shrunk by factor and are refined at full
+     resolution within band columns either side of the upscaled seam. A factor of 1 turns it off.
+     */
+    public void setApproximateSearch(int factor, int band) {
+        if (factor < 1 || band < 1) {
+            throw new IllegalArgumentException("Pyramid factor and band must be at least 1, got " + factor
+                    + " and " + band);
+        }
+        pyramidFactor = factor;
+        pyramidBand = band;
+    }
+
+    // Sets the pool used for full energy passes and for seam searches on very wide images,
+    // null to stay on the calling thread
+    public void setEnergyPool(ForkJoinPool energyPool) {
+        this.energyPool = energyPool;
+    }
+
+    /*
+     Marks the energy around a seam as out of date, given its columns in the view after the edit.
+     Dirty bands are always kept per physical row, whatever the view.
+     */
+    private void markDirty(int[] seam) {
+        shiftDirtyBands();
+        int lines = getHeight();
+        int length = getWidth();
+        for (int line = 0; line < lines; line++) {
+            // A pixel's energy depends on its 3x3 neighbourhood, so the seam position in the
+            // lines before and after matters as well as the one in this line
+            int from = seam[line];
+            int to = seam[line];
+            if (line > 0) {
+                from = Math.min(from, seam[line - 1]);
+                to = Math.max(to, seam[line - 1]);
+            }
+            if (line < lines - 1) {
+                from = Math.min(from, seam[line + 1]);
+                to = Math.max(to, seam[line + 1]);
+            }
+            from = Math.max(0, from - 1);
+            to = Math.min(length - 1, to + 1);
+            if (!transposed) {
+                markBand(line, from, to);
+            } else {
+                for (int row = from; row <= to; row++) {
+                    markBand(row, line, line);
                 }
             }
         }
-    
-    // highlightSeam highlights a given seam with the chosen colour
-    public List<Pixel> highlightSeam(List<Pixel> seam, Color color) {
+        energyDirty = true;
+    }
 
-        // List to store the original colour values of the seam
-        List<Pixel> seamValues = new ArrayList<>(seam.size());
+    // Adds the columns from..to of a physical row to its dirty band
+    private void markBand(int row, int from, int to) {
+        dirtyFrom[row] = Math.min(dirtyFrom[row], from);
+        dirtyTo[row] = Math.max(dirtyTo[row], to);
+    }
 
-        // Iterates through all pixels in the seam
-        for (Pixel p : seam) {
+    /*
+     A seam edit moves pixels by at most one position: sideways for vertical seams and up or down
+     for horizontal ones. Older dirty bands are grown by that much so they still cover their pixels.
+     */
+    private void shiftDirtyBands() {
+        if (!transposed) {
+            for (int row = 0; row < height; row++) {
+                if (dirtyFrom[row] <= dirtyTo[row]) {
+                    dirtyFrom[row] = Math.max(0, dirtyFrom[row] - 1);
+                    dirtyTo[row] = Math.min(width - 1, dirtyTo[row] + 1);
+                }
+            }
+            return;
+        }
+        int previousFrom = Integer.MAX_VALUE;
+        int previousTo = -1;
+        for (int row = 0; row < height; row++) {
+            int currentFrom = dirtyFrom[row];
+            int currentTo = dirtyTo[row];
+            if (row + 1 < dirtyFrom.length) {
+                markBand(row, dirtyFrom[row + 1], dirtyTo[row + 1]);
+            }
+            markBand(row, previousFrom, previousTo);
+            previousFrom = currentFrom;
+            previousTo = currentTo;
+        }
+        // Rows past the bottom are spare and start clean when they are reused
+        Arrays.fill(dirtyFrom, height, dirtyFrom.length, Integer.MAX_VALUE);
+        Arrays.fill(dirtyTo, height, dirtyTo.length, -1);
+    }
 
-            // Adds the seams original colour values the seamValues
-            seamValues.add(new Pixel(p.color.getRGB()));
+    // Recomputes the energy of the dirty bands only, giving the same values as calculateEnergy()
+    void updateEnergy() {
+        if (!energyDirty) {
+            return;
+        }
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        if (bandCurrent == null || bandCurrent.length < width) {
+            bandAbove = new double[width];
+            bandCurrent = new double[width];
+            bandBelow = new double[width];
+            bandEnergies = new double[width];
+        }
+        for (int row = 0; row < height; row++) {
+            int from = dirtyFrom[row];
+            int to = Math.min(width - 1, dirtyTo[row]);
+            if (from > to) {
+                continue;
+            }
+            // Energy functions read one column beyond each side of the band
+            int loadFrom = Math.max(0, from - 1);
+            int loadTo = Math.min(width - 1, to + 1);
+            double[] above = row == 0 ? null : loadLuminance(row - 1, bandAbove, loadFrom, loadTo);
+            double[] current = loadLuminance(row, bandCurrent, loadFrom, loadTo);
+            double[] below = row == height - 1 ? null : loadLuminance(row + 1, bandBelow, loadFrom, loadTo);
+            int[] slotsInRow = rows[row];
+            energyFunction.energyRow(above, current, below, bandEnergies, from, to + 1, width);
+            for (int col = from; col <= to; col++) {
+                energies[slotsInRow[col]] = bandEnergies[col];
+            }
+            dirtyFrom[row] = Integer.MAX_VALUE;
+            dirtyTo[row] = -1;
+        }
+        energyDirty = false;
+        metrics.record(Metrics.Operation.ENERGY, start, allocated);
+    }
 
-            // Highlight colour applied to the seam
-            p.color = color;
+    // Fills target with the luminance of the pixels from..to (inclusive) of the given row
+    private double[] loadLuminance(int row, double[] target, int from, int to) {
+        int[] slotsInRow = rows[row];
+        for (int col = from; col <= to; col++) {
+            target[col] = Pixel.brightness(pixels[slotsInRow[col]]);
         }
+        return target;
+    }
 
-        // Return the original colour values of the seam
-        return seamValues;
+    // Energy of the pixel at the given position of the view as last computed
+    double energyAt(int row, int col) {
+        return energies[slotAt(row, col)];
     }
-    
-        public void removeSeam(List<Pixel> seam) {
-    
+
+    /*
+     Highlights a seam of the view in the given colour. The seam is only painted over exported
+     images, the pixels keep their colours and nothing is copied.
+     */
+    public void highlightSeam(int[] seam, Color color) {
+        overlaySeam = seam;
+        overlayTransposed = transposed;
+        overlayColour = color.getRGB();
+    }
+
+    // Highlights a seam of pixel views, which keep their original colours and are returned as they are
+    public List<Pixel> highlightSeam(List<Pixel> seam, Color color) {
+        highlightSeam(toColumns(seam), color);
+        return seam;
+    }
+
+    // Removes the highlight, the pixels never changed so nothing else needs restoring
+    public void clearHighlight() {
+        overlaySeam = null;
+    }
+
+    public void removeSeam(List<Pixel> seam) {
+        removeSeam(toColumns(seam));
+    }
+
+    // Removes a seam given as one column per row of the view
+    public void removeSeam(int[] seam) {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        overlaySeam = null;
+        recordEdit(removalCode(seam, 0));
+        if (transposed) {
+            // Every physical column loses one pixel, the pixels below it move up
+            height--;
+            shiftUp(seam);
+        } else {
             // Decrease the width by 1 to account for the removed seam
             width--;
-    
-            // Process each row in the seam, updating the corresponding pixel links
+
+            // Shift the slots right of the seam one column to the left, the removed slot becomes dead
             for (int row = 0; row < height; row++) {
-                // Get the pixel corresponding to the current row in the seam
-                Pixel pixel = seam.get(row);
-    
-                // If the pixel is not the leftmost one, update the left neighbor
-                if (pixel.left != null) {
-                    pixel.left.right = pixel.right;
-                } else {
-                    // For the leftmost pixel, update the first pixel in the row
-                    rows.set(row, pixel.right);
+                int col = seam[row];
+                System.arraycopy(rows[row], col + 1, rows[row], col, width - col);
+            }
+        }
+        markDirty(seam);
+        metrics.record(Metrics.Operation.REMOVE_SEAM, start, allocated);
+    }
+
+    /*
+     Removes several seams in one sweep over every row, as if removeSeam() was called for each in
+     order. Every seam is given in the view left by the ones before it, as getSeamsColumns()
+     returns them, so each row of seams has to be non-decreasing. All rows change, so the energy is
+     recomputed in one full pass instead of tracking a dirty band per seam.
+     */
+    public void removeSeams(int[][] seams) {
+        if (seams.length == 0) {
+            return;
+        }
+        if (seams.length == 1) {
+            removeSeam(seams[0]);
+            return;
+        }
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        int count = seams.length;
+        if (count >= viewWidth) {
+            throw new IllegalArgumentException("Can remove between 0 and " + (viewWidth - 1) + " seams, got " + count);
+        }
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        overlaySeam = null;
+        // The same versions as removing them one after another, taken while the pixels are still there
+        long[] codes = new long[count];
+        for (int seam = 0; seam < count; seam++) {
+            codes[seam] = removalCode(seams[seam], seam);
+        }
+        int[] removed = new int[count];
+        for (int row = 0; row < viewHeight; row++) {
+            // Back to columns of the current view, strictly increasing
+            for (int seam = 0; seam < count; seam++) {
+                removed[seam] = seams[seam][row] + seam;
+                if (seam > 0 && removed[seam] <= removed[seam - 1]) {
+                    throw new IllegalArgumentException("Seams must be given in removal order, seam " + seam
+                            + " is left of seam " + (seam - 1) + " in row " + row);
                 }
-    
-                // If the pixel is not the rightmost one, update the right neighbor
-                if (pixel.right != null) {
-                    pixel.right.left = pixel.left;
+            }
+            if (removed[count - 1] >= viewWidth) {
+                throw new IllegalArgumentException("Seam " + (count - 1) + " is outside the image in row " + row);
+            }
+            if (!transposed) {
+                // Every stretch between two removed columns moves left once, by the number of seams before it
+                int[] slotsInRow = rows[row];
+                for (int seam = 0; seam < count; seam++) {
+                    int from = removed[seam] + 1;
+                    int to = seam + 1 < count ? removed[seam + 1] : viewWidth;
+                    System.arraycopy(slotsInRow, from, slotsInRow, from - seam - 1, to - from);
                 }
             }
         }
-    
-        // addSeam inserts a previously removed seam back into the image
-    public void addSeam(List<Pixel> seam) {
-        
-        // Increases the image width by 1 as we are restoring the seam
-        width++;
+        if (transposed) {
+            height -= count;
+            shiftUp(seams);
+        } else {
+            width -= count;
+        }
+        for (long code : codes) {
+            recordEdit(code);
+        }
+        calculateEnergy();
+        metrics.record(Metrics.Operation.REMOVE_SEAM, start, allocated);
+    }
 
-        // Linking the seam pixels to the linked list row by row
-        for (int row = 0; row < height; row++) {
-            Pixel pixel = seam.get(row);
+    // addSeam inserts a previously removed seam back into the image
+    public void addSeam(List<Pixel> seam) {
+        int[] colours = new int[seam.size()];
+        for (int row = 0; row < colours.length; row++) {
+            colours[row] = seam.get(row).rgb;
+        }
+        addSeam(toColumns(seam), colours);
+    }
 
-            // If the pixel to the left of the current pixel is not null this links them
-            if (pixel.left != null) {
-                pixel.left.right = pixel;
+    // Inserts a seam given as one column and one packed colour per row of the view
+    public void addSeam(int[] seam, int[] colours) {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        overlaySeam = null;
+        recordEdit(insertionCode(seam, colours));
+        reserveSlots(colours.length);
+        if (transposed) {
+            // Every physical column gains one pixel, the pixels below it move down
+            ensureRows(height + 1);
+            height++;
+            shiftDown(seam);
+            for (int col = 0; col < width; col++) {
+                pixels[slots] = colours[col];
+                rows[seam[col]][col] = slots++;
             }
-
-            // If the pixel to the left is null the current pixel becomes the leftmost pixel in the row
-            else {
-                rows.set(row, pixel);
+        } else {
+            // Make sure there is room for one more pixel in every row
+            if (rows[0].length == width) {
+                int capacity = width + Math.max(1, width / 2);
+                for (int row = 0; row < rows.length; row++) {
+                    rows[row] = Arrays.copyOf(rows[row], capacity);
+                }
             }
 
-            // If the pixel to the right of the current pixel is not null this links them
-            if (pixel.right != null) {
-                pixel.right.left = pixel;
+            // Store each seam pixel in a fresh slot and shift the rest of the row to the right
+            for (int row = 0; row < height; row++) {
+                int col = seam[row];
+                int[] slotsInRow = rows[row];
+                System.arraycopy(slotsInRow, col, slotsInRow, col + 1, width - col);
+                pixels[slots] = colours[row];
+                slotsInRow[col] = slots++;
             }
+
+            // Increases the image width by 1 as we are restoring the seam
+            width++;
         }
+        markDirty(seam);
+        metrics.record(Metrics.Operation.ADD_SEAM, start, allocated);
     }
-    
-        private static <T> List<T> concat(T element, Collection<? extends T> elements){
-            List<T> result = new ArrayList<>();
-            result.add(element); // Add the single element first
-            result.addAll(elements); // Then add all elements from the collection
-            return result;
+
+    /*
+     Moves the slots of every physical column below seam[col] up by one, the slot at seam[col] is
+     dropped. height is already the new height. The sweep goes row by row rather than column by
+     column, so it reads and writes whole physical rows: the rows below the lowest seam pixel are
+     a single arraycopy each, only the band the seam crosses is copied slot by slot.
+     */
+    private void shiftUp(int[] seam) {
+        int top = Integer.MAX_VALUE;
+        int bottom = 0;
+        for (int col = 0; col < width; col++) {
+            top = Math.min(top, seam[col]);
+            bottom = Math.max(bottom, seam[col]);
         }
+        for (int row = top; row < height; row++) {
+            int[] target = rows[row];
+            int[] source = rows[row + 1];
+            if (row >= bottom) {
+                System.arraycopy(source, 0, target, 0, width);
+            } else {
+                for (int col = 0; col < width; col++) {
+                    if (row >= seam[col]) {
+                        target[col] = source[col];
+                    }
+                }
+            }
+        }
+    }
 
-        // Method to find the seam that maximizes a given value using dynamic programming
-        private List<Pixel> getSeamMaximizing(Function<Pixel, Double> valueGetter) {
-            // Arrays to store the computed values for each column in the previous and current rows
-            double[] previousValues = new double[width];
-            double[] currentValues = new double[width];
-    
-            // Track the seams for each column and each row
-            List<List<Pixel>> previousSeams = new ArrayList<>(width);
-            List<List<Pixel>> currentSeams = new ArrayList<>(width);
-    
-            // Initialize first row: compute initial values and seams
+    /*
+     The same sweep for several seams given in removal order, as removeSeams() takes them. Going
+     down the physical rows, each column keeps count of the seams it has passed and reads from that
+     many rows further down, which have not been overwritten yet.
+     */
+    private void shiftUp(int[][] seams) {
+        int count = seams.length;
+        int[] passed = new int[width];
+        int top = height;
+        for (int col = 0; col < width; col++) {
+            top = Math.min(top, seams[0][col]);
+        }
+        for (int row = top; row < height; row++) {
+            int[] target = rows[row];
             for (int col = 0; col < width; col++) {
-                Pixel pixel = getPixelByRowCol(0, col);
-                // Calculate the value for the first row using the provided function
-                previousValues[col] = valueGetter.apply(pixel);
-
-                // Initialize the seam for the first row, which is just the pixel itself
-                List<Pixel> seam = new ArrayList<>();
-                seam.add(pixel);
-                previousSeams.add(seam);
-            }
-    
-            // Process subsequent rows starting from row 1
-            for (int row = 1; row < height; row++) {
-                // Reset current seams for this row
-                currentSeams.clear();
-    
+                int skip = passed[col];
+                while (skip < count && seams[skip][col] <= row) {
+                    skip++;
+                }
+                passed[col] = skip;
+                target[col] = rows[row + skip][col];
+            }
+        }
+    }
+
+    /*
+     Moves the slots of every physical column from seam[col] on down by one, leaving rows[seam[col]][col]
+     free for the inserted pixel. height already counts the new row. Goes up from the bottom row so
+     every row is read before it is overwritten, whole rows below the lowest seam pixel are one
+     arraycopy each.
+     */
+    private void shiftDown(int[] seam) {
+        int top = Integer.MAX_VALUE;
+        int bottom = 0;
+        for (int col = 0; col < width; col++) {
+            top = Math.min(top, seam[col]);
+            bottom = Math.max(bottom, seam[col]);
+        }
+        for (int row = height - 1; row > top; row--) {
+            int[] target = rows[row];
+            int[] source = rows[row - 1];
+            if (row > bottom) {
+                System.arraycopy(source, 0, target, 0, width);
+            } else {
                 for (int col = 0; col < width; col++) {
-                    Pixel pixel = getPixelByRowCol(row, col);
-    
-                    // Find the best path from the previous row
-                    double maxVal = previousValues[col];
-                    int bestCol = col;
-
-                    // Check the column to the left (if it exists)
-                    if (col > 0 && previousValues[col - 1] > maxVal) {
-                        maxVal = previousValues[col - 1];
-                        bestCol = col - 1;
+                    if (row > seam[col]) {
+                        target[col] = source[col];
                     }
+                }
+            }
+        }
+    }
+
+    // Makes sure there are at least count physical rows, adding spare rows as needed
+    private void ensureRows(int count) {
+        if (count <= rows.length) {
+            return;
+        }
+        int oldCount = rows.length;
+        int capacity = Math.max(count, oldCount + oldCount / 2);
+        rows = Arrays.copyOf(rows, capacity);
+        for (int row = oldCount; row < capacity; row++) {
+            rows[row] = new int[rows[0].length];
+        }
+        dirtyFrom = Arrays.copyOf(dirtyFrom, capacity);
+        dirtyTo = Arrays.copyOf(dirtyTo, capacity);
+        Arrays.fill(dirtyFrom, oldCount, capacity, Integer.MAX_VALUE);
+        Arrays.fill(dirtyTo, oldCount, capacity, -1);
+    }
+
+    /*
+     Widens the view by count seams (at most width - 1). The count lowest energy seams are found by
+     removing them one after another, as carving would, from the current image. Only the row index
+     is saved beforehand and restored afterwards, so the simulation copies 4 bytes per pixel and
+     moves no colours. Every pixel a simulated seam went through then gets a new pixel inserted
+     right after it, averaged with its right neighbour, in one backwards pass over each row.
+     */
+    public void insertSeams(int count) {
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        if (count < 0 || count >= viewWidth) {
+            throw new IllegalArgumentException("Can insert between 0 and " + (viewWidth - 1) + " seams, got " + count);
+        }
+        if (count == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+
+        // Make room for count more pixels in every row of the view. This comes before the
+        // simulation because compacting renumbers the slots.
+        reserveSlots(count * viewHeight);
+        if (transposed) {
+            ensureRows(height + count);
+        } else if (rows[0].length < width + count) {
+            int capacity = width + count + Math.max(1, width / 2);
+            for (int row = 0; row < rows.length; row++) {
+                rows[row] = Arrays.copyOf(rows[row], capacity);
+            }
+        }
+
+        // Simulate the removals on the live index, marking the slots every seam goes through
+        int[][] savedRows = new int[height][];
+        for (int row = 0; row < height; row++) {
+            savedRows[row] = Arrays.copyOf(rows[row], width);
+        }
+        int savedWidth = width;
+        int savedHeight = height;
+        long savedVersion = version;
+        int savedEdits = edits;
+        boolean[] chosen = new boolean[slots];
+        Metrics recorded = metrics;
+        metrics = Metrics.DISABLED;
+        try {
+            for (int i = 0; i < count; i++) {
+                int[] seam = getLowestEnergySeamColumns();
+                for (int row = 0; row < viewHeight; row++) {
+                    chosen[slotAt(row, seam[row])] = true;
+                }
+                removeSeam(seam);
+            }
+        } finally {
+            metrics = recorded;
+            width = savedWidth;
+            height = savedHeight;
+            version = savedVersion;
+            edits = savedEdits;
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(savedRows[row], 0, rows[row], 0, width);
+            }
+        }
+
+        // Rebuild every row from the right, so no slot is overwritten before it has been moved
+        for (int row = 0; row < viewHeight; row++) {
+            int target = viewWidth + count - 1;
+            int right = -1;
+            for (int col = viewWidth - 1; col >= 0; col--) {
+                int slot = slotAt(row, col);
+                if (chosen[slot]) {
+                    pixels[slots] = right < 0 ? pixels[slot] : average(pixels[slot], pixels[right]);
+                    setSlotAt(row, target--, slots++);
+                }
+                setSlotAt(row, target--, slot);
+                right = slot;
+            }
+        }
+        if (transposed) {
+            height += count;
+        } else {
+            width += count;
+        }
+        overlaySeam = null;
+        // No seam edit reverses this one, so its code only has to be new
+        recordEdit(mix(version, ++insertions));
+
+        // Every row changed, one full pass is cheaper than tracking the bands of count seams
+        calculateEnergy();
+        metrics.record(Metrics.Operation.ADD_SEAM, start, allocated);
+    }
+
+    /*
+     Identifies the pixels of the image: two states with equal versions have equal pixels. Every
+     seam edit mixes a hash of its seam, colours and direction into the version, and an edit that
+     exactly reverses the previous one (adding back the seam just removed, or removing the seam
+     just added) returns to the version before it. So undo restores the version as well, and redo
+     gives the version the edit had the first time. Equal pixels reached by other edits get other
+     versions, and hash collisions are possible but as unlikely as for any 64 bit hash.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    // Pushes an edit onto the version stack, or pops the previous edit if this one reverses it
+    private void recordEdit(long code) {
+        if (edits > 0 && editCodes[edits - 1] == ~code) {
+            version = versionsBefore[--edits];
+            return;
+        }
+        if (edits == editCodes.length) {
+            editCodes = Arrays.copyOf(editCodes, edits * 2);
+            versionsBefore = Arrays.copyOf(versionsBefore, edits * 2);
+        }
+        editCodes[edits] = code;
+        versionsBefore[edits++] = version;
+        version = mix(version, code);
+    }
+
+    /*
+     Drops the edit stack once no edit can be undone any more, keeping the version. Edits that
+     reverse earlier ones then get new versions instead of the old ones, which only costs cache hits.
+     */
+    void forgetEdits() {
+        edits = 0;
+        if (editCodes.length > INITIAL_EDITS) {
+            editCodes = new long[INITIAL_EDITS];
+            versionsBefore = new long[INITIAL_EDITS];
+        }
+    }
+
+    // Depth of the edit stack
+    int recordedEdits() {
+        return edits;
+    }
+
+    // Code of removing a seam of the view whose pixels are offset columns right of seam
+    private long removalCode(int[] seam, int offset) {
+        long hash = transposed ? 1 : 2;
+        for (int row = 0; row < seam.length; row++) {
+            hash = mix(hash, ((long) seam[row] << Integer.SIZE)
+                    | Integer.toUnsignedLong(pixels[slotAt(row, seam[row] + offset)]));
+        }
+        return hash;
+    }
+
+    // Code of inserting a seam, the complement of the code of removing the same pixels
+    private long insertionCode(int[] seam, int[] colours) {
+        long hash = transposed ? 1 : 2;
+        for (int row = 0; row < seam.length; row++) {
+            hash = mix(hash, ((long) seam[row] << Integer.SIZE) | Integer.toUnsignedLong(colours[row]));
+        }
+        return ~hash;
+    }
+
+    // SplitMix64 finalizer over a combination of two values
+    private static long mix(long first, long second) {
+        long z = first * GOLDEN_GAMMA + second;
+        z = (z ^ (z >>> MIX_SHIFT_1)) * MIX_MULTIPLIER_1;
+        z = (z ^ (z >>> MIX_SHIFT_2)) * MIX_MULTIPLIER_2;
+        return z ^ (z >>> MIX_SHIFT_3);
+    }
+
+    // Points the given position of the view at a slot
+    private void setSlotAt(int row, int col, int slot) {
+        if (transposed) {
+            rows[col][row] = slot;
+        } else {
+            rows[row][col] = slot;
+        }
+    }
+
+    // Channel by channel average of two packed colours, alpha included
+    private static int average(int first, int second) {
+        int colour = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += Pixel.CHANNEL_BITS) {
+            int channel = (((first >>> shift) & Pixel.CHANNEL_MASK) + ((second >>> shift) & Pixel.CHANNEL_MASK)) / 2;
+            colour |= channel << shift;
+        }
+        return colour;
+    }
+
+    // Packed colours of the pixels along a seam
+    public int[] seamColours(int[] seam) {
+        int[] colours = new int[seam.length];
+        for (int row = 0; row < seam.length; row++) {
+            colours[row] = pixels[slotAt(row, seam[row])];
+        }
+        return colours;
+    }
+
+    // Adapter from the compact seam representation to pixel views
+    public List<Pixel> toPixels(int[] seam) {
+        List<Pixel> pixelSeam = new ArrayList<>(seam.length);
+        for (int row = 0; row < seam.length; row++) {
+            pixelSeam.add(getPixelByRowCol(row, seam[row]));
+        }
+        return pixelSeam;
+    }
+
+    // Adapter from pixel views to the compact seam representation
+    public static int[] toColumns(List<Pixel> seam) {
+        int[] columns = new int[seam.size()];
+        for (int row = 0; row < columns.length; row++) {
+            columns[row] = seam.get(row).col;
+        }
+        return columns;
+    }
+
+    // Makes sure that count more slots can be handed out, reclaiming dead slots first
+    private void reserveSlots(int count) {
+        if (slots + count <= pixels.length) {
+            return;
+        }
+        int live = width * height;
+        if (slots - live >= live / 2) {
+            compact();
+        }
+        if (slots + count > pixels.length) {
+            int capacity = Math.max(slots + count, pixels.length + pixels.length / 2);
+            pixels = Arrays.copyOf(pixels, capacity);
+            energies = Arrays.copyOf(energies, capacity);
+        }
+    }
+
+    // Moves the live pixels to the front of the slot arrays in row order, dropping the dead ones
+    private void compact() {
+        int[] packedPixels = new int[pixels.length];
+        double[] packedEnergies = new double[energies.length];
+        int next = 0;
+        for (int row = 0; row < height; row++) {
+            int[] slotsInRow = rows[row];
+            for (int col = 0; col < width; col++) {
+                packedPixels[next] = pixels[slotsInRow[col]];
+                packedEnergies[next] = energies[slotsInRow[col]];
+                slotsInRow[col] = next++;
+            }
+        }
+        pixels = packedPixels;
+        energies = packedEnergies;
+        slots = next;
+    }
+
+    /*
+     Finds the seam that maximizes the sum of the criterion's values over its pixels using dynamic programming.
+     Only the best total per column of the previous row and a direction table (-1, 0 or +1 towards
+     the parent column) are kept, and the seam is recovered by backtracking once from the bottom
+     row. The buffers are reused between searches and only grow when the image does.
+     Rows of very wide images are split into column chunks that are relaxed in parallel.
+     With steps set, every step between two rows also costs steps.stepCost() (forward energy).
+     With a pyramid factor set, the seam is searched approximately instead, see getSeamOnPyramid().
+     */
+    private int[] getSeamMaximizing(SeamCriterion criterion, EnergyFunction steps) {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        ensureSearchBuffers(viewWidth * viewHeight);
+        if (pyramidFactor > 1 && steps == null && viewWidth > 2 * pyramidBand + 1) {
+            int[] seam = getSeamOnPyramid(criterion);
+            metrics.record(Metrics.Operation.SEAM_SEARCH, start, allocated);
+            return seam;
+        }
+        relaxAllRows(criterion, steps);
+
+        // Find the best seam from the bottom row by looking for the column with the highest value
+        double[] lastValues = valuesOfRow(viewHeight - 1);
+        int bestCol = 0;
+        for (int col = 1; col < viewWidth; col++) {
+            if (lastValues[col] > lastValues[bestCol]) {
+                bestCol = col;
+            }
+        }
+
+        // Backtrack from the bottom row following the stored directions
+        int[] seam = new int[viewHeight];
+        seam[viewHeight - 1] = bestCol;
+        for (int row = viewHeight - 1; row > 0; row--) {
+            seam[row - 1] = seam[row] + directions[row * viewWidth + seam[row]];
+        }
+        metrics.record(Metrics.Operation.SEAM_SEARCH, start, allocated);
+        return seam;
+    }
+
+    // Exact DP over the whole view: the seam totals of the bottom row and the directions of every pixel
+    private void relaxAllRows(SeamCriterion criterion, EnergyFunction steps) {
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+
+        // Initialize first row: the value of a one pixel seam is the value of the pixel
+        int[] slotsInRow = slotsOfRow(0, columnScratch);
+        for (int col = 0; col < viewWidth; col++) {
+            previousValues[col] = value(criterion, 0, col, slotsInRow[col]);
+        }
+
+        // Process subsequent rows starting from row 1
+        int chunks = energyPool == null ? 1
+                : Math.min(energyPool.getParallelism(), viewWidth / PARALLEL_DP_MIN_COLUMNS);
+        if (chunks > 1) {
+            relaxRowsInParallel(criterion, steps, chunks);
+        } else {
+            int[] slotsAbove = slotsInRow;
+            for (int row = 1; row < viewHeight; row++) {
+                // A transposed row goes into the scratch buffer that does not hold the row above
+                slotsInRow = slotsOfRow(row, slotsAbove == columnScratch ? aboveScratch : columnScratch);
+                if (steps == null) {
+                    relaxRow(row, slotsInRow, criterion, 0, viewWidth);
+                } else {
+                    relaxRowWithSteps(row, slotsAbove, slotsInRow, criterion, steps, 0, viewWidth);
+                }
+                slotsAbove = slotsInRow;
+            }
+        }
+    }
+
+    /*
+     Finds up to count seams that share no pixel from a single DP pass, for carving many seams at
+     a time. The bottom row's columns are tried best total first and each is backtracked; a path
+     that runs into a pixel of an already accepted seam has merged with it and is skipped. Fewer
+     than count seams come back if too many paths merge. Every seam is as good as the best one
+     left at this point, but unlike removing one seam at a time the later ones cannot take the
+     energy changes of the earlier removals into account.
+     The seams are returned as they would be removed one after another: each one in the view left
+     after removing the ones before it, so removeSeams() or a removeSeam() per seam give the same
+     image. Pyramid search is not used here, the pass is always exact.
+     */
+    public int[][] getSeamsColumns(SeamCriterion criterion, int count) {
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        if (count < 1 || count >= viewWidth) {
+            throw new IllegalArgumentException("Can find between 1 and " + (viewWidth - 1) + " seams, got " + count);
+        }
+        EnergyFunction steps = null;
+        if (criterion.usesEnergy()) {
+            updateEnergy();
+            steps = energyFunction.hasStepCost() ? energyFunction : null;
+        }
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        int cells = viewWidth * viewHeight;
+        ensureSearchBuffers(cells);
+        relaxAllRows(criterion, steps);
+
+        double[] lastValues = valuesOfRow(viewHeight - 1);
+        if (bottomOrder == null || bottomOrder.length < viewWidth) {
+            bottomOrder = new int[viewWidth];
+            orderScratch = new int[viewWidth];
+        }
+        for (int col = 0; col < viewWidth; col++) {
+            bottomOrder[col] = col;
+        }
+        int[] bottomCols = sortByValueDescending(bottomOrder, orderScratch, viewWidth, lastValues);
+
+        if (taken == null || taken.length < cells) {
+            taken = new boolean[cells];
+        } else {
+            Arrays.fill(taken, 0, cells, false);
+        }
+        int[][] accepted = new int[count][];
+        int found = 0;
+        int[] path = new int[viewHeight];
+        for (int i = 0; i < viewWidth && found < count; i++) {
+            path[viewHeight - 1] = bottomCols[i];
+            boolean merged = taken[(viewHeight - 1) * viewWidth + path[viewHeight - 1]];
+            for (int row = viewHeight - 1; row > 0 && !merged; row--) {
+                path[row - 1] = path[row] + directions[row * viewWidth + path[row]];
+                merged = taken[(row - 1) * viewWidth + path[row - 1]];
+            }
+            if (merged) {
+                continue;
+            }
+            for (int row = 0; row < viewHeight; row++) {
+                taken[row * viewWidth + path[row]] = true;
+            }
+            accepted[found++] = path.clone();
+        }
+
+        // The i-th leftmost pixel of every row forms a connected seam too, which lies i columns
+        // further left once the i seams left of it are gone
+        int[][] seams = new int[found][viewHeight];
+        int[] columns = new int[found];
+        for (int row = 0; row < viewHeight; row++) {
+            for (int seam = 0; seam < found; seam++) {
+                columns[seam] = accepted[seam][row];
+            }
+            Arrays.sort(columns);
+            for (int seam = 0; seam < found; seam++) {
+                seams[seam][row] = columns[seam] - seam;
+            }
+        }
+        metrics.record(Metrics.Operation.SEAM_SEARCH, start, allocated);
+        return seams;
+    }
 
-                    // Check the column to the right (if it exists)
-                    if (col < width - 1 && previousValues[col + 1] > maxVal) {
-                        maxVal = previousValues[col + 1];
-                        bestCol = col + 1;
+    /*
+     Sorts the first length columns of order by their values, highest first, with a bottom-up
+     merge sort between order and scratch. Stable, so equal totals keep the left to right order of
+     the single seam search. Returns whichever of the two arrays ends up holding the result.
+     */
+    private static int[] sortByValueDescending(int[] order, int[] scratch, int length, double[] values) {
+        int[] from = order;
+        int[] to = scratch;
+        for (int run = 1; run < length; run *= 2) {
+            for (int left = 0; left < length; left += 2 * run) {
+                int middle = Math.min(left + run, length);
+                int end = Math.min(left + 2 * run, length);
+                int i = left;
+                int j = middle;
+                for (int k = left; k < end; k++) {
+                    if (j >= end || i < middle && Double.compare(values[from[i]], values[from[j]]) >= 0) {
+                        to[k] = from[i++];
+                    } else {
+                        to[k] = from[j++];
                     }
-    
-                    // Update current value for this column
-                    currentValues[col] = maxVal + valueGetter.apply(pixel);
-
-                    // Build a new seam by copying the best seam from the previous row and adding the current pixel
-                    List<Pixel> newSeam = new ArrayList<>(previousSeams.get(bestCol));
-                    newSeam.add(pixel);
-                    currentSeams.add(newSeam);
                 }
-    
-                // Prepare for next row by updating the previous values and seams
-                System.arraycopy(currentValues, 0, previousValues, 0, width);
-                List<List<Pixel>> temp = previousSeams;
-                // Swap current and previous seams for the next iteration
-                previousSeams = currentSeams;
-                currentSeams = temp;
-                currentSeams.clear();
-            }
-
-            // Find the best seam from the bottom row by looking for the column with the highest value
-            int bestCol = 0;
-            for (int col = 1; col < width; col++) {
-                if (previousValues[col] > previousValues[bestCol]) {
-                    bestCol = col;
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        return from;
+    }
+
+    /*
+     Approximate seam search. The view is shrunk by pyramidFactor in both directions, every coarse
+     cell holding the mean value of its block, and the coarse seam is found exactly. Scaled back up,
+     it becomes a connected guide path, and the full resolution search only relaxes the columns
+     within pyramidBand of the guide. The DP then costs O(W·H / factor² + H·band) instead of
+     O(W·H), plus one pass that sums the blocks. The guide itself is always inside the band, so a
+     seam is always found, but it can be worse than the exact one if the best seam leaves the band.
+     Step costs (forward energy) are not supported and take the exact search.
+     */
+    private int[] getSeamOnPyramid(SeamCriterion criterion) {
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        int factor = pyramidFactor;
+        int coarseWidth = (viewWidth + factor - 1) / factor;
+        int coarseHeight = (viewHeight + factor - 1) / factor;
+        if (coarseValues == null || coarseValues.length < coarseWidth * coarseHeight) {
+            coarseValues = new double[coarseWidth * coarseHeight];
+            coarseDirections = new byte[coarseWidth * coarseHeight];
+        }
+        if (bandFrom == null || bandFrom.length < viewHeight) {
+            bandFrom = new int[viewHeight];
+            bandTo = new int[viewHeight];
+        }
+
+        // Mean value of every factor x factor block, blocks at the right and bottom may be smaller
+        Arrays.fill(coarseValues, 0, coarseWidth * coarseHeight, 0);
+        for (int row = 0; row < viewHeight; row++) {
+            int[] slotsInRow = slotsOfRow(row, columnScratch);
+            int offset = row / factor * coarseWidth;
+            for (int col = 0; col < viewWidth; col++) {
+                coarseValues[offset + col / factor] += value(criterion, row, col, slotsInRow[col]);
+            }
+        }
+        for (int coarseRow = 0; coarseRow < coarseHeight; coarseRow++) {
+            int blockHeight = Math.min(factor, viewHeight - coarseRow * factor);
+            for (int coarseCol = 0; coarseCol < coarseWidth; coarseCol++) {
+                int blockWidth = Math.min(factor, viewWidth - coarseCol * factor);
+                coarseValues[coarseRow * coarseWidth + coarseCol] /= blockWidth * blockHeight;
+            }
+        }
+        int[] coarseSeam = seamOfGrid(coarseValues, coarseDirections, coarseWidth, coarseHeight);
+
+        // The guide walks at most one column per row towards the centre of the coarse seam's block
+        int guide = Math.min(viewWidth - 1, coarseSeam[0] * factor + factor / 2);
+        for (int row = 0; row < viewHeight; row++) {
+            int target = Math.min(viewWidth - 1, coarseSeam[row / factor] * factor + factor / 2);
+            guide += Integer.signum(target - guide);
+            bandFrom[row] = Math.max(0, guide - pyramidBand);
+            bandTo[row] = Math.min(viewWidth - 1, guide + pyramidBand);
+        }
+
+        // Full resolution search within the band, columns outside the previous band are unreachable
+        int[] slotsInRow = slotsOfRow(0, columnScratch);
+        for (int col = bandFrom[0]; col <= bandTo[0]; col++) {
+            previousValues[col] = value(criterion, 0, col, slotsInRow[col]);
+        }
+        for (int row = 1; row < viewHeight; row++) {
+            slotsInRow = slotsOfRow(row, columnScratch);
+            double[] parentValues = valuesOfRow(row - 1);
+            double[] rowValues = valuesOfRow(row);
+            int parentFrom = bandFrom[row - 1];
+            int parentTo = bandTo[row - 1];
+            int offset = row * viewWidth;
+            for (int col = bandFrom[row]; col <= bandTo[row]; col++) {
+                // Same choice and tie-breaking as relaxRow
+                double maxVal = Double.NEGATIVE_INFINITY;
+                byte direction = 0;
+                if (col >= parentFrom && col <= parentTo) {
+                    maxVal = parentValues[col];
+                }
+                if (col - 1 >= parentFrom && col - 1 <= parentTo && parentValues[col - 1] > maxVal) {
+                    maxVal = parentValues[col - 1];
+                    direction = -1;
+                }
+                if (col + 1 >= parentFrom && col + 1 <= parentTo && parentValues[col + 1] > maxVal) {
+                    maxVal = parentValues[col + 1];
+                    direction = 1;
+                }
+                rowValues[col] = maxVal + value(criterion, row, col, slotsInRow[col]);
+                directions[offset + col] = direction;
+            }
+        }
+
+        double[] lastValues = valuesOfRow(viewHeight - 1);
+        int bestCol = bandFrom[viewHeight - 1];
+        for (int col = bestCol + 1; col <= bandTo[viewHeight - 1]; col++) {
+            if (lastValues[col] > lastValues[bestCol]) {
+                bestCol = col;
+            }
+        }
+        int[] seam = new int[viewHeight];
+        seam[viewHeight - 1] = bestCol;
+        for (int row = viewHeight - 1; row > 0; row--) {
+            seam[row - 1] = seam[row] + directions[row * viewWidth + seam[row]];
+        }
+        return seam;
+    }
+
+    // Exact seam maximizing the sum of a gridWidth x gridHeight grid of values, in row order
+    private static int[] seamOfGrid(double[] grid, byte[] gridDirections, int gridWidth, int gridHeight) {
+        double[] parentValues = Arrays.copyOf(grid, gridWidth);
+        double[] rowValues = new double[gridWidth];
+        for (int row = 1; row < gridHeight; row++) {
+            int offset = row * gridWidth;
+            for (int col = 0; col < gridWidth; col++) {
+                double maxVal = parentValues[col];
+                byte direction = 0;
+                if (col > 0 && parentValues[col - 1] > maxVal) {
+                    maxVal = parentValues[col - 1];
+                    direction = -1;
+                }
+                if (col < gridWidth - 1 && parentValues[col + 1] > maxVal) {
+                    maxVal = parentValues[col + 1];
+                    direction = 1;
+                }
+                rowValues[col] = maxVal + grid[offset + col];
+                gridDirections[offset + col] = direction;
+            }
+            double[] temp = parentValues;
+            parentValues = rowValues;
+            rowValues = temp;
+        }
+        int bestCol = 0;
+        for (int col = 1; col < gridWidth; col++) {
+            if (parentValues[col] > parentValues[bestCol]) {
+                bestCol = col;
+            }
+        }
+        int[] seam = new int[gridHeight];
+        seam[gridHeight - 1] = bestCol;
+        for (int row = gridHeight - 1; row > 0; row--) {
+            seam[row - 1] = seam[row] + gridDirections[row * gridWidth + seam[row]];
+        }
+        return seam;
+    }
+
+    // Value of the pixel in a slot, at the given position of the view
+    private double value(SeamCriterion criterion, int row, int col, int slot) {
+        return criterion.value(row, col, pixels[slot], energies[slot]);
+    }
+
+    // Seam totals of a row, the two value buffers take turns so no copying is needed
+    private double[] valuesOfRow(int row) {
+        return row % 2 == 0 ? previousValues : currentValues;
+    }
+
+    // Computes the seam totals and directions of the columns fromCol..toCol-1 of a row
+    private void relaxRow(int row, int[] slotsInRow, SeamCriterion criterion, int fromCol, int toCol) {
+        int viewWidth = getWidth();
+        double[] parentValues = valuesOfRow(row - 1);
+        double[] rowValues = valuesOfRow(row);
+        int offset = row * viewWidth;
+        for (int col = fromCol; col < toCol; col++) {
+
+            // Find the best path from the previous row
+            double maxVal = parentValues[col];
+            byte direction = 0;
+
+            // Check the column to the left (if it exists)
+            if (col > 0 && parentValues[col - 1] > maxVal) {
+                maxVal = parentValues[col - 1];
+                direction = -1;
+            }
+
+            // Check the column to the right (if it exists)
+            if (col < viewWidth - 1 && parentValues[col + 1] > maxVal) {
+                maxVal = parentValues[col + 1];
+                direction = 1;
+            }
+
+            // Update current value for this column and remember where it came from
+            rowValues[col] = maxVal + value(criterion, row, col, slotsInRow[col]);
+            directions[offset + col] = direction;
+        }
+    }
+
+    // relaxRow for energy functions that charge every step between two rows
+    private void relaxRowWithSteps(int row, int[] slotsAbove, int[] slotsInRow, SeamCriterion criterion,
+                                   EnergyFunction steps, int fromCol, int toCol) {
+        int viewWidth = getWidth();
+        double[] parentValues = valuesOfRow(row - 1);
+        double[] rowValues = valuesOfRow(row);
+        int offset = row * viewWidth;
+        for (int col = fromCol; col < toCol; col++) {
+            double upper = Pixel.brightness(pixels[slotsAbove[col]]);
+            double left = Pixel.brightness(pixels[slotsInRow[col > 0 ? col - 1 : col]]);
+            double right = Pixel.brightness(pixels[slotsInRow[col < viewWidth - 1 ? col + 1 : col]]);
+
+            // Same choice as relaxRow, with the cost of each step taken off its parent's total
+            double maxVal = parentValues[col] - steps.stepCost(upper, left, right, 0);
+            byte direction = 0;
+            if (col > 0) {
+                double fromLeft = parentValues[col - 1] - steps.stepCost(upper, left, right, -1);
+                if (fromLeft > maxVal) {
+                    maxVal = fromLeft;
+                    direction = -1;
+                }
+            }
+            if (col < viewWidth - 1) {
+                double fromRight = parentValues[col + 1] - steps.stepCost(upper, left, right, 1);
+                if (fromRight > maxVal) {
+                    maxVal = fromRight;
+                    direction = 1;
                 }
             }
-            // Return the best seam from the last row
-            return previousSeams.get(bestCol);
-        }
-    
-    
-        public List<Pixel> getGreenestSeam() {
-            return getSeamMaximizing(Pixel::getGreen);
-            /*Or, since we haven't lectured on lambda syntax in Java, this can be
-            return getSeamMaximizing(new Function<Pixel, Double>() {
-                @Override
-                public Double apply(Pixel pixel) {
-                    return pixel.getGreen();
+            rowValues[col] = maxVal + value(criterion, row, col, slotsInRow[col]);
+            directions[offset + col] = direction;
+        }
+    }
+
+    /*
+     Wavefront version of the row loop. Every column of a row only depends on the row above, so each
+     of the chunks relaxes its own columns of every row and all chunks meet at a barrier before the
+     next row. The calling thread takes the first chunk, the others run as one task each on the
+     energy pool for the whole search. Every column is relaxed exactly as in the sequential loop,
+     so the seam and its tie-breaking are the same.
+     */
+    private void relaxRowsInParallel(SeamCriterion criterion, EnergyFunction steps, int chunks) {
+        int viewWidth = getWidth();
+        // Whether a chunk failed, and the same as of the last barrier, which is what every chunk acts on:
+        // a chunk that is slow to wake up could otherwise see a failure of the next row already
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicBoolean stop = new AtomicBoolean();
+        CyclicBarrier rowDone = new CyclicBarrier(chunks, () -> stop.set(failed.get()));
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks - 1);
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            int fromCol = viewWidth * chunk / chunks;
+            int toCol = viewWidth * (chunk + 1) / chunks;
+            tasks.add(energyPool.submit(() -> relaxChunk(criterion, steps, fromCol, toCol, rowDone,
+                    failed, stop)));
+        }
+        try {
+            relaxChunk(criterion, steps, 0, viewWidth / chunks, rowDone, failed, stop);
+        } finally {
+            // Rethrows the failure of another chunk, all of them have stopped at the same row
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    /*
+     Relaxes the columns fromCol..toCol-1 of every row, waiting for the other chunks after each row.
+     A chunk that fails still arrives at the barrier of its row, with failed set, the barrier sets
+     stop and every chunk stops once past it, so none is left waiting for a row that never comes. The barrier is never
+     reset: an interrupted wait breaks it for good, and later arrivals fail at once.
+     */
+    private void relaxChunk(SeamCriterion criterion, EnergyFunction steps, int fromCol, int toCol,
+                            CyclicBarrier rowDone, AtomicBoolean failed, AtomicBoolean stop) {
+        int viewHeight = getHeight();
+        // A transposed row is gathered per chunk, so chunks never share a scratch buffer. Step costs
+        // also read the columns next to the chunk and the row above.
+        int gatherFrom = steps == null ? fromCol : Math.max(0, fromCol - 1);
+        int gatherTo = steps == null ? toCol : Math.min(getWidth(), toCol + 1);
+        int[] chunkSlots = transposed ? new int[gatherTo] : null;
+        int[] chunkAbove = transposed && steps != null ? new int[gatherTo] : null;
+        if (chunkAbove != null) {
+            gatherRow(0, chunkAbove, gatherFrom, gatherTo);
+        }
+        RuntimeException failure = null;
+        try {
+            for (int row = 1; row < viewHeight; row++) {
+                try {
+                    int[] slotsInRow;
+                    if (transposed) {
+                        gatherRow(row, chunkSlots, gatherFrom, gatherTo);
+                        slotsInRow = chunkSlots;
+                    } else {
+                        slotsInRow = rows[row];
+                    }
+                    if (steps == null) {
+                        relaxRow(row, slotsInRow, criterion, fromCol, toCol);
+                    } else {
+                        int[] slotsAbove = transposed ? chunkAbove : rows[row - 1];
+                        relaxRowWithSteps(row, slotsAbove, slotsInRow, criterion, steps, fromCol, toCol);
+                    }
+                } catch (RuntimeException e) {
+                    failure = e;
+                    failed.set(true);
                 }
-            });*/
-    
-        }
-    
-        public List<Pixel> getLowestEnergySeam() {
-            calculateEnergy();
-            /*
-            Maximizing negation of energy is the same as minimizing the energy.
-             */
-            return getSeamMaximizing(pixel -> -pixel.energy);
-    
-            /*Or, since we haven't lectured on lambda syntax in Java, this can be
-            return getSeamMaximizing(new Function<Pixel, Double>() {
-                @Override
-                public Double apply(Pixel pixel) {
-                    return -pixel.energy;
+                ForkJoinPool.managedBlock(new BarrierBlocker(rowDone));
+                if (stop.get()) {
+                    break;
                 }
-            });
-            */
+                if (chunkAbove != null) {
+                    int[] temp = chunkAbove;
+                    chunkAbove = chunkSlots;
+                    chunkSlots = temp;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Seam search interrupted", e);
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
+
+    // Lets the pool add a thread while a chunk waits at the row barrier, so waiting chunks never starve
+    private static final class BarrierBlocker implements ForkJoinPool.ManagedBlocker {
+        private final CyclicBarrier barrier;
+        private boolean passed;
+
+        BarrierBlocker(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            try {
+                barrier.await();
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException("Another chunk of the seam search failed", e);
+            }
+            passed = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return passed;
+        }
+    }
+
+    // Allocates the seam search buffers if they are missing or too small for the current view
+    private void ensureSearchBuffers(int cells) {
+        int viewWidth = getWidth();
+        if (previousValues == null || previousValues.length < viewWidth) {
+            previousValues = new double[viewWidth];
+            currentValues = new double[viewWidth];
+        }
+        if (directions == null || directions.length < cells) {
+            directions = new byte[cells];
+        }
+        if (transposed && (columnScratch == null || columnScratch.length < viewWidth)) {
+            columnScratch = new int[viewWidth];
+            aboveScratch = new int[viewWidth];
+        }
+    }
+
+    /*
+     Finds the seam the criterion values highest. Energies are only brought up to date for
+     criteria that use them, and only their seams pay the step costs of the energy function.
+     */
+    public int[] getSeamColumns(SeamCriterion criterion) {
+        EnergyFunction steps = null;
+        if (criterion.usesEnergy()) {
+            updateEnergy();
+            steps = energyFunction.hasStepCost() ? energyFunction : null;
+        }
+        return getSeamMaximizing(criterion, steps);
+    }
+
+    public int[] getGreenestSeamColumns() {
+        return getSeamColumns(SeamCriterion.GREENEST);
+    }
+
+    public int[] getLowestEnergySeamColumns() {
+        return getSeamColumns(SeamCriterion.LOWEST_ENERGY);
+    }
+
+    public List<Pixel> getGreenestSeam() {
+        return toPixels(getGreenestSeamColumns());
+    }
+
+    public List<Pixel> getLowestEnergySeam() {
+        return toPixels(getLowestEnergySeamColumns());
+    }
+}
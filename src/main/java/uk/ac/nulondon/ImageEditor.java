@@ -5,63 +5,442 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
-public class ImageEditor {
+public class ImageEditor implements AutoCloseable {
 
     // Image data structure holds pixels and seam editing logic
     private Image image;
 
-    // Reference to the currently highlighted seam
-    private List<Pixel> highlightedSeam = null;
+    // Columns of the currently highlighted seam, in the direction it runs
+    private int[] highlightedSeam = null;
 
-    // Stores original pixel colours
-    private List<Pixel> previousSeamColors = null;
+    // Whether the highlighted seam runs horizontally
+    private boolean highlightedHorizontal = false;
 
-    // Stack of previously executed demands
-    private final Deque<CommandControl> previousCommands = new ArrayDeque<>();
+    // Pool for parallel energy passes and seam searches, null to stay on the calling thread
+    private ForkJoinPool energyPool = null;
+
+    // How the energy of loaded images is computed
+    private EnergyFunction energyFunction = EnergyFunction.SOBEL;
+
+    // Pyramid search settings of loaded images, a factor of 1 for exact searches
+    private int pyramidFactor = 1;
+    private int pyramidBand = 1;
+
+    // Seams carving takes from each seam search, 1 to search again after every seam
+    private int seamsPerPass = 1;
+
+    // Memory budget of the undo and redo stacks together, older entries spill to a temporary file
+    private long undoBudget = UndoHistory.DEFAULT_BUDGET;
+
+    // Previously executed and undone demands
+    private UndoHistory history = null;
+
+    // Timings of everything the editor and its image do
+    private final Metrics metrics = new Metrics();
+
+    // Number of seams the highlight cache keeps
+    static final int SEAM_CACHE_SIZE = 8;
+
+    /*
+     Seams found for highlighting, by image version, direction and criterion, least recently used
+     first. Energy maps are not kept per version: the image updates its energies around every
+     inserted or removed seam, so undoing back to a version already brings back its energies for
+     the cost of one band per seam, where a copy would cost a grid of doubles per entry.
+     */
+    private final Map<SeamKey, int[]> seamCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SeamKey, int[]> eldest) {
+            return size() > SEAM_CACHE_SIZE;
+        }
+    };
+    private long seamCacheHits;
+    private long seamCacheMisses;
+
+    // Where highlighted previews are written in the background, null to not write previews
+    private Path previewPath = null;
+    private final PreviewWriter previews = new PreviewWriter(metrics);
+
+    public ImageEditor() {
+        metrics.gauge("width", () -> image == null ? 0 : image.getWidth());
+        metrics.gauge("height", () -> image == null ? 0 : image.getHeight());
+        metrics.gauge("undoDepth", () -> history == null ? 0 : history.undoDepth());
+        metrics.gauge("seamCacheHits", () -> seamCacheHits);
+        metrics.gauge("seamCacheMisses", () -> seamCacheMisses);
+    }
+
+    // What a cached seam was searched for
+    private record SeamKey(long version, boolean horizontal, Criterion criterion) {
+    }
+
+    // The ways a seam can be chosen for removal from the menu and the command line
+    public enum Criterion {
+        GREENEST(SeamCriterion.GREENEST),
+        ENERGY(SeamCriterion.LOWEST_ENERGY);
+
+        private final SeamCriterion seamCriterion;
+
+        Criterion(SeamCriterion seamCriterion) {
+            this.seamCriterion = seamCriterion;
+        }
+
+        // Finds the seam this criterion picks in the given image
+        int[] findSeam(Image target) {
+            return target.getSeamColumns(seamCriterion);
+        }
+
+        SeamCriterion seamCriterion() {
+            return seamCriterion;
+        }
+    }
 
     // Loads an image from a given file path
     public void load(String filePath) throws IOException {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
         File originalFile = new File(filePath);
         BufferedImage img = ImageIO.read(originalFile);
-        image = new Image(img);
+        // ImageIO returns null instead of throwing when no reader understands the file
+        if (img == null) {
+            throw new IOException("Not a readable image: " + filePath);
+        }
+        metrics.record(Metrics.Operation.DECODE, start, allocated);
+        load(img, start, allocated);
+    }
+
+    // Loads an image that has already been decoded
+    public void load(BufferedImage img) throws IOException {
+        load(img, System.nanoTime(), Metrics.allocatedBytes());
+    }
+
+    private void load(BufferedImage img, long start, long allocated) throws IOException {
+        Image previous = image;
+        image = new Image(img, energyPool, energyFunction);
+        if (previous != null) {
+            // An editor that loads image after image keeps its warmed up search buffers
+            image.reuseBuffersOf(previous);
+        }
+        // Versions only identify states of one image
+        seamCache.clear();
+        image.setMetrics(metrics);
+        image.setApproximateSearch(pyramidFactor, pyramidBand);
+        cancelHighlight();
+        if (history != null) {
+            history.clear();
+        }
+        history = new UndoHistory(image, undoBudget);
+        metrics.record(Metrics.Operation.LOAD, start, allocated);
+    }
+
+    // Sets how many threads compute the energy of large images and search seams of very wide ones, 1 for no threads
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        if (energyPool != null) {
+            energyPool.shutdown();
+        }
+        energyPool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+        if (image != null) {
+            image.setEnergyPool(energyPool);
+        }
+    }
+
+    // Sets how the energy is computed, for the current image and the ones loaded later
+    public void setEnergyFunction(EnergyFunction energyFunction) {
+        this.energyFunction = energyFunction;
+        if (image != null) {
+            image.setEnergyFunction(energyFunction);
+        }
+        seamCache.clear();
+    }
+
+    /*
+     Searches seams on an image shrunk by factor and refines them within band columns of the
+     upscaled seam, for the current image and the ones loaded later. A factor of 1 searches exactly.
+     */
+    public void setApproximateSearch(int factor, int band) {
+        if (image != null) {
+            image.setApproximateSearch(factor, band);
+        } else if (factor < 1 || band < 1) {
+            throw new IllegalArgumentException("Pyramid factor and band must be at least 1, got " + factor
+                    + " and " + band);
+        }
+        pyramidFactor = factor;
+        pyramidBand = band;
+        seamCache.clear();
+    }
+
+    /*
+     Makes carving take up to count seams that share no pixel from each seam search and remove
+     them in one sweep, trading some quality for far fewer searches. 1 removes seams one at a time.
+     */
+    public void setSeamsPerPass(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Seams per pass must be at least 1, got " + count);
+        }
+        seamsPerPass = count;
+    }
+
+    // Makes every highlight write a preview PNG to the given file in the background, null to stop
+    public void setPreviewPath(String filePath) {
+        previewPath = filePath == null ? null : Path.of(filePath);
+    }
+
+    // Waits until the latest preview has been written
+    public void awaitPreview() throws IOException {
+        previews.await();
+    }
+
+    // Deletes the undo history's temporary files and stops the energy threads, the editor is done afterwards
+    @Override
+    public void close() throws IOException {
+        if (energyPool != null) {
+            energyPool.shutdown();
+            energyPool = null;
+        }
+        if (history != null) {
+            history.close();
+        }
     }
 
     // Saves the current iteration of the image to a given file path
     public void save(String filePath) throws IOException {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
         BufferedImage img = image.toBufferedImage();
         ImageIO.write(img, "png", new File(filePath));
+        metrics.record(Metrics.Operation.SAVE, start, allocated);
     }
 
-    // Highlights the greenest seam in green
-    public void highlightGreenest() throws IOException {
+    /*
+     Saves the image, its cached energies and the undo and redo stacks to a session file, so
+     editing can resume later with loadSession. The highlight is not saved.
+     */
+    public void saveSession(String filePath) throws IOException {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        SessionFile.write(Path.of(filePath), image, history);
+        metrics.record(Metrics.Operation.SAVE, start, allocated);
+    }
 
-        // Finds the seam with the highest green value
-        List<Pixel> greenestSeam = image.getGreenestSeam();
+    /*
+     Resumes a session saved by saveSession. The energy function it was saved with becomes the
+     current one; parallelism, pyramid search and undo budget stay as set on this editor. A
+     truncated or corrupt file throws IOException and leaves the current image alone.
+     */
+    public void loadSession(String filePath) throws IOException {
+        long start = System.nanoTime();
+        long allocated = Metrics.allocatedBytes();
+        SessionFile.Contents session = SessionFile.read(Path.of(filePath));
+        cancelHighlight();
+        if (history != null) {
+            history.clear();
+        }
+        image = session.image();
+        seamCache.clear();
+        energyFunction = image.getEnergyFunction();
+        image.setEnergyPool(energyPool);
+        image.setMetrics(metrics);
+        image.setApproximateSearch(pyramidFactor, pyramidBand);
+        history = new UndoHistory(image, undoBudget);
+        history.restore(session.undo(), session.redo());
+        metrics.record(Metrics.Operation.LOAD, start, allocated);
+    }
+
+    Image getImage() {
+        return image;
+    }
 
-        // Highlights the seam in green and store the previous seam colours
-        List<Pixel> previousColours = image.highlightSeam(greenestSeam, Color.GREEN);
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    // Highlights answered from the seam cache
+    public long getSeamCacheHits() {
+        return seamCacheHits;
+    }
 
-        // Store references to the greenest seam and the previous seam colours
-        highlightedSeam = greenestSeam;
-        previousSeamColors = previousColours;
+    // Highlights that had to search
+    public long getSeamCacheMisses() {
+        return seamCacheMisses;
+    }
+
+    // Sets the memory budget shared by the undo and redo stacks for images loaded from now on
+    public void setUndoBudget(long bytes) {
+        undoBudget = bytes;
+    }
+
+    /*
+     Removes seams chosen by the criterion until the image is targetWidth wide. This is the batch
+     path: nothing is highlighted and nothing is recorded for undo, the image reuses its seam search
+     buffers and energy between seams. Any undo history refers to the pre-carve image, so it is dropped.
+     With setSeamsPerPass above 1, every search yields several seams that are removed together.
+     An interrupted thread stops carving at the next seam with an InterruptedIOException.
+     */
+    public void carveToWidth(int targetWidth, Criterion criterion) throws IOException {
+        carveToWidth(targetWidth, criterion.seamCriterion);
+    }
+
+    // Removes the seams a custom criterion picks until the image is targetWidth wide, see above
+    public void carveToWidth(int targetWidth, SeamCriterion criterion) throws IOException {
+        if (targetWidth < 1 || targetWidth > image.getWidth()) {
+            throw new IllegalArgumentException("Target size must be between 1 and " + image.getWidth()
+                    + ", got " + targetWidth);
+        }
+        history.clear();
+        cancelHighlight();
+        try {
+            while (image.getWidth() > targetWidth) {
+                checkInterrupted();
+                int count = Math.min(seamsPerPass, image.getWidth() - targetWidth);
+                int[][] seams = count == 1 ? new int[][] {image.getSeamColumns(criterion)}
+                        : image.getSeamsColumns(criterion, count);
+                image.removeSeams(seams);
+                for (int[] seam : seams) {
+                    criterion.seamRemoved(seam);
+                }
+            }
+        } finally {
+            // None of these removals can be undone, so the image need not remember them
+            image.forgetEdits();
+        }
+    }
+
+    // Removes horizontal seams until the image is targetHeight high, see carveToWidth
+    public void carveToHeight(int targetHeight, Criterion criterion) throws IOException {
+        carveToHeight(targetHeight, criterion.seamCriterion);
+    }
+
+    // Removes horizontal seams a custom criterion picks, which sees the image transposed, see carveToWidth
+    public void carveToHeight(int targetHeight, SeamCriterion criterion) throws IOException {
+        image.transpose();
+        try {
+            carveToWidth(targetHeight, criterion);
+        } finally {
+            image.transpose();
+        }
+    }
+
+    /*
+     Inserts lowest energy seams until the image is targetWidth wide. Each round inserts at most
+     half the current width, so the same low energy region is not stretched over and over. Like
+     carving, this drops the highlight and the undo history.
+     */
+    public void enlargeToWidth(int targetWidth) throws IOException {
+        if (targetWidth < image.getWidth()) {
+            throw new IllegalArgumentException("Target size must be at least " + image.getWidth()
+                    + ", got " + targetWidth);
+        }
+        history.clear();
+        cancelHighlight();
+        try {
+            while (image.getWidth() < targetWidth) {
+                checkInterrupted();
+                int round = Math.max(1, image.getWidth() / 2);
+                image.insertSeams(Math.min(round, targetWidth - image.getWidth()));
+            }
+        } finally {
+            image.forgetEdits();
+        }
+    }
+
+    // Inserts horizontal seams until the image is targetHeight high, see enlargeToWidth
+    public void enlargeToHeight(int targetHeight) throws IOException {
+        image.transpose();
+        try {
+            enlargeToWidth(targetHeight);
+        } finally {
+            image.transpose();
+        }
+    }
+
+    // Lets batch work be cancelled between seams
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Carving interrupted");
+        }
+    }
+
+    // Runs an action on horizontal seams by looking at the image through its transposed view
+    private static void inDirection(Image image, boolean horizontal, Runnable action) {
+        if (!horizontal) {
+            action.run();
+            return;
+        }
+        image.transpose();
+        try {
+            action.run();
+        } finally {
+            image.transpose();
+        }
+    }
+
+    // Highlights the greenest seam in green
+    public void highlightGreenest() throws IOException {
+        highlightGreenest(false);
+    }
+
+    // Highlights the greenest vertical or horizontal seam in green
+    public void highlightGreenest(boolean horizontal) throws IOException {
+        highlight(horizontal, Criterion.GREENEST, Color.GREEN);
     }
 
     // Highlights the seam with the lowest energy in red
     public void highlightLowestEnergySeam() throws IOException {
+        highlightLowestEnergySeam(false);
+    }
 
-        // Finds the seam with the lowest energy
-        List<Pixel> lowestEnergySeam = image.getLowestEnergySeam();
+    // Highlights the vertical or horizontal seam with the lowest energy in red
+    public void highlightLowestEnergySeam(boolean horizontal) throws IOException {
+        highlight(horizontal, Criterion.ENERGY, Color.RED);
+    }
 
-        // Highlights the seam in red and stores the seams previous colours
-        List<Pixel> previousColours = image.highlightSeam(lowestEnergySeam, Color.RED);
+    /*
+     Finds the seam the criterion picks and shows it as an overlay that is only painted when the
+     image is exported. The pixels are not changed, so cancelling a highlight costs nothing.
+     Seams are cached by image version, so asking again for the same state, after declining a
+     removal or undoing back to it, skips the search.
+     */
+    private void highlight(boolean horizontal, Criterion criterion, Color color) {
+        SeamKey key = new SeamKey(image.getVersion(), horizontal, criterion);
+        int[] cached = seamCache.get(key);
+        if (cached != null) {
+            seamCacheHits++;
+        } else {
+            seamCacheMisses++;
+        }
+        inDirection(image, horizontal, () -> {
+            int[] seam = cached != null ? cached : criterion.findSeam(image);
+            seamCache.put(key, seam);
+            long start = System.nanoTime();
+            long allocated = Metrics.allocatedBytes();
+            image.highlightSeam(seam, color);
+            metrics.record(Metrics.Operation.HIGHLIGHT, start, allocated);
+            highlightedSeam = seam;
+        });
+        highlightedHorizontal = horizontal;
+        if (previewPath != null) {
+            // Rendering is a copy of the pixels, only the PNG encoding moves off this thread
+            previews.submit(image.toBufferedImage(), previewPath);
+        }
+    }
 
-        // Store references to the lowest energy seam and the previous seam colours
-        highlightedSeam = lowestEnergySeam;
-        previousSeamColors = previousColours;
+    // Drops the highlighted seam and its pending preview without editing the image
+    public void cancelHighlight() {
+        if (image != null) {
+            image.clearHighlight();
+        }
+        highlightedSeam = null;
+        previews.discard();
     }
 
     // Removes the currently highlighted seam
@@ -73,28 +452,41 @@ public class ImageEditor {
             return;
         }
 
-        // Creates a command to remove the highlighted seam
-        CommandControl command = new SeamEditCommand(image, highlightedSeam, previousSeamColors);
+        // Creates a command to remove the highlighted seam, remembering the colours it removes
+        if (highlightedHorizontal) {
+            image.transpose();
+        }
+        int[] colours = image.seamColours(highlightedSeam);
+        if (highlightedHorizontal) {
+            image.transpose();
+        }
+        SeamEditCommand command = new SeamEditCommand(image, highlightedSeam, colours, highlightedHorizontal);
 
-        // Executes the removal of the seam
+        // Executes the removal of the seam, which also drops the overlay
         command.execute();
 
-        // Pushes the command to the stack to enable the removal to be undone
-        previousCommands.push(command);
+        // Pushes the command to the history to enable the removal to be undone
+        history.push(command);
 
-        // Remove references to the seam
+        // Remove references to the seam, a preview still being written is out of date
         highlightedSeam = null;
-        previousSeamColors = null;
+        previews.discard();
     }
 
     // Enables previous edits to be undone
     public void undo() throws IOException {
 
+        // A highlighted seam would no longer match the image
+        cancelHighlight();
+
         // If there have been previous commands the most recent command is undone
-        if (!previousCommands.isEmpty()) {
-            CommandControl previousCommand = previousCommands.pop();
-            previousCommand.undo();
-        }
+        history.undo();
+    }
+
+    // Executes the most recently undone edit again
+    public void redo() throws IOException {
+        cancelHighlight();
+        history.redo();
     }
 
     // Interface enabling the execution of commands as well as undo functionality
@@ -104,40 +496,96 @@ public class ImageEditor {
     }
 
     /*The SeamEditCommand class enables the execution of commands
-     and stores previous data for the undo functionality
+     and stores previous data for the undo functionality. The seam is kept as one column per row
+     and the original colours as packed ints, so a command costs 8 bytes per seam pixel.
      */
     public static class SeamEditCommand implements CommandControl {
+        // Bytes of the serialized form before the seam data: length and direction
+        private static final int HEADER_BYTES = Integer.BYTES + 1;
+
+        // Headers of the command and its two arrays, added to the array data in sizeInBytes
+        private static final int OBJECT_OVERHEAD_BYTES = 64;
+
         private final Image image;
-        private final List<Pixel> currentSeam;
-        private final List<Pixel> previousColours;
+        private final int[] seam;
+        private final int[] colours;
+        private final boolean horizontal;
 
         // Class Constructor
         public SeamEditCommand(Image image, List<Pixel> currentSeam, List<Pixel> previousColours) {
+            this(image, currentSeam, previousColours, false);
+        }
+
+        // Constructor for a seam that may run horizontally, in which case the seam is given in the transposed view
+        public SeamEditCommand(Image image, List<Pixel> currentSeam, List<Pixel> previousColours,
+                               boolean horizontal) {
+            this(image, Image.toColumns(currentSeam), new int[previousColours.size()], horizontal);
+            for (int row = 0; row < colours.length; row++) {
+                colours[row] = previousColours.get(row).getRGB();
+            }
+        }
+
+        // Constructor for a seam given as columns and packed original colours
+        public SeamEditCommand(Image image, int[] seam, int[] colours, boolean horizontal) {
             this.image = image;
-            this.currentSeam = currentSeam;
-            this.previousColours = previousColours;
+            this.seam = seam;
+            this.colours = colours;
+            this.horizontal = horizontal;
         }
 
         // Executes seam removal using the removeSeam method
         @Override
         public void execute() {
             // Implementation of the removeSeam method
-            image.removeSeam(currentSeam);
+            inDirection(image, horizontal, () -> image.removeSeam(seam));
         }
 
         // Undo method to undo previous seam removal
         @Override
         public void undo() {
 
-            // Using the addSeam method to insert the seam back into the image
-            image.addSeam(currentSeam);
+            // Using the addSeam method to insert the seam back into the image with its previous colours
+            inDirection(image, horizontal, () -> image.addSeam(seam, colours));
+        }
 
-            // Restoring the seams previous colours
-            for (int i = 0; i < currentSeam.size(); i++) {
-                Pixel seamPixel = currentSeam.get(i);
-                Pixel original = previousColours.get(i);
-                seamPixel.color = new Color(original.color.getRGB());
+        // Columns of the seam, in the transposed view for a horizontal seam
+        int[] seam() {
+            return seam;
+        }
+
+        boolean isHorizontal() {
+            return horizontal;
+        }
+
+        // Approximate heap footprint, used for the undo memory budget
+        long sizeInBytes() {
+            return 2L * Integer.BYTES * seam.length + OBJECT_OVERHEAD_BYTES;
+        }
+
+        // Serialized form: seam length, direction, columns, colours
+        ByteBuffer toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 2 * Integer.BYTES * seam.length);
+            buffer.putInt(seam.length).put((byte) (horizontal ? 1 : 0));
+            buffer.asIntBuffer().put(seam).put(colours);
+            return buffer.rewind();
+        }
+
+        // Reads a command written by toBytes
+        static SeamEditCommand fromBytes(Image image, ByteBuffer buffer) throws IOException {
+            if (buffer.remaining() < HEADER_BYTES) {
+                throw new IOException("Seam edit record is truncated");
+            }
+            int length = buffer.getInt();
+            boolean horizontal = buffer.get() != 0;
+            if (length < 0 || buffer.remaining() < 2L * Integer.BYTES * length) {
+                throw new IOException("Seam edit record is truncated");
             }
+            int[] seam = new int[length];
+            int[] colours = new int[length];
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.get(seam).get(colours);
+            buffer.position(buffer.position() + 2 * Integer.BYTES * length);
+            return new SeamEditCommand(image, seam, colours, horizontal);
         }
     }
 }
@@ -1,10 +1,25 @@
 package uk.ac.nulondon;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.Set;
 
 /*APPLICATION CONTROLLER LAYER*/
 public class Main {
+    // Columns around the coarse seam searched at full resolution unless --band says otherwise
+    private static final int DEFAULT_BAND = 8;
+
+    // Queue capacity and timeout of server mode unless --queue and --timeout say otherwise
+    private static final int DEFAULT_QUEUE = 16;
+    private static final int DEFAULT_TIMEOUT_SECONDS = 30;
+
     private final ImageEditor editor = new ImageEditor();
 
     /**
@@ -14,7 +29,12 @@ public class Main {
         System.out.println("Please enter a command");
         System.out.println("g - Remove the greenest seam");
         System.out.println("e - Remove the seam with the lowest energy");
+        System.out.println("hg - Remove the greenest horizontal seam");
+        System.out.println("he - Remove the horizontal seam with the lowest energy");
         System.out.println("u - Undo previous edit");
+        System.out.println("r - Redo previous undo");
+        System.out.println("s - Show statistics");
+        System.out.println("w - Save the session to target/editor.session");
         System.out.println("q - Quit");
     }
 
@@ -26,38 +46,50 @@ public class Main {
         }
     }
 
-    private void energy(Scanner scan) throws IOException {
-        // highlight and export intermediate image
-        editor.highlightLowestEnergySeam();
+    private void redo(Scanner scan) throws IOException {
+        System.out.println("Redo. Continue? (Y/N)");
+        if ("y".equalsIgnoreCase(scan.next())) {
+            editor.redo();
+        }
+    }
+
+    private void energy(Scanner scan, boolean horizontal) throws IOException {
+        // highlight and export the intermediate image in the background
+        editor.highlightLowestEnergySeam(horizontal);
         // ask for confirmation and try to execute
         System.out.println("Remove a lowest energy seam. Continue? (Y/N)");
         if ("y".equalsIgnoreCase(scan.next())) {
             editor.removeHighlighted();
         } else {
-            editor.undo();
+            editor.cancelHighlight();
         }
     }
 
-    private void greenest(Scanner scan) throws IOException {
-        // highlight and export intermediate image
-        editor.highlightGreenest();
+    private void greenest(Scanner scan, boolean horizontal) throws IOException {
+        // highlight and export the intermediate image in the background
+        editor.highlightGreenest(horizontal);
         // ask for confirmation and try to execute
         System.out.println("Remove the greenest seam. Continue? (Y/N)");
         if ("y".equalsIgnoreCase(scan.next())) {
             editor.removeHighlighted();
         } else {
-            editor.undo();
+            editor.cancelHighlight();
         }
     }
 
     private void run() throws IOException {
-        //Scanner is closeable, so we put it into try-with-resources
-        try (Scanner scan = new Scanner(System.in)) {
+        //Scanner is closeable, so we put it into try-with-resources, and so is the editor with its undo files
+        try (Scanner scan = new Scanner(System.in); editor) {
             // src/main/resources/beach.png
             System.out.println("Welcome! Enter file path");
             String filePath = scan.next();
-            // import the file
-            editor.load(filePath);
+            // import the file or resume a saved session, highlighted seams are previewed in target/preview.png
+            if (filePath.endsWith(".session")) {
+                editor.loadSession(filePath);
+            } else {
+                editor.load(filePath);
+            }
+            editor.setPreviewPath("target/preview.png");
 
             String choice = "";
             while (!"q".equalsIgnoreCase(choice)) {
@@ -65,27 +97,293 @@ public class Main {
                 printMenu();
                 // get and handle user input
                 choice = scan.next();
-                switch (choice.toLowerCase()) {
+                switch (choice.toLowerCase(Locale.ROOT)) {
                     //Extract all the actions into methods besides the trivial ones
-                    case "g" -> greenest(scan);
-                    case "e" -> energy(scan);
+                    case "g" -> greenest(scan, false);
+                    case "e" -> energy(scan, false);
+                    case "hg" -> greenest(scan, true);
+                    case "he" -> energy(scan, true);
                     case "u" -> undo(scan);
+                    case "r" -> redo(scan);
+                    case "s" -> System.out.print(editor.getMetrics().summary());
+                    case "w" -> editor.saveSession("target/editor.session");
                     case "q" -> System.out.println("Thanks for playing.");
                     default -> System.out.println("That is not a valid option.");
                 }
             }
-            // After the user exits, export the final image
+            // After the user exits, export the final image and the statistics
             editor.save("target/newImg.png");
+            writeMetrics("target/metrics.json");
+        }
+    }
+
+
+    // Writes the editor's statistics as JSON
+    private void writeMetrics(String filePath) throws IOException {
+        Files.writeString(Path.of(filePath), editor.getMetrics().toJson());
+    }
+
+    /*
+     Options of the non-interactive modes, parsed once from the name value pairs of the command
+     line. Sizes of -1 keep the dimension, a band height of -1 means no streaming, and batch limits
+     of -1 keep the defaults of BatchRunner.
+     */
+    private static final class Options {
+        private String in;
+        private String out;
+        private int width = -1;
+        private int height = -1;
+        private ImageEditor.Criterion criterion = ImageEditor.Criterion.ENERGY;
+        private EnergyFunction energyFunction = EnergyFunction.SOBEL;
+        private int threads = 1;
+        private String metricsFile;
+        private int pyramidFactor = 1;
+        private int band = DEFAULT_BAND;
+        private int seamsPerPass = 1;
+        private int streamBandRows = -1;
+        private String workDir;
+        private long maxPixels = -1;
+        private int concurrent = -1;
+
+        // Names of the options that were given, so every mode can refuse the ones it does not use
+        private final Set<String> given = new HashSet<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                options.set(args[i], args[i + 1]);
+            }
+            if (options.in == null || options.out == null || options.width < 0 && options.height < 0) {
+                throw new IllegalArgumentException("Usage: --in <file> --out <file> [--width <pixels>]"
+                        + " [--height <pixels>] [--criterion greenest|energy]"
+                        + " [--energy sobel|sobel-vector|dual|forward] [--threads <count>]"
+                        + " [--pyramid <factor>] [--band <columns>] [--metrics <file>]"
+                        + " [--seams-per-pass <count>] [--max-pixels <pixels>] [--concurrent <count>]"
+                        + " [--stream <band rows>] [--work-dir <directory>]");
+            }
+            return options;
+        }
+
+        // Throws if any of the named options was given, mode says where they are not supported
+        void reject(String mode, String... names) {
+            for (String name : names) {
+                if (given.contains(name)) {
+                    throw new IllegalArgumentException(name + " is not supported in " + mode);
+                }
+            }
+        }
+
+        private void set(String name, String value) {
+            given.add(name);
+            switch (name) {
+                case "--in" -> {
+                    in = value;
+                }
+                case "--out" -> {
+                    out = value;
+                }
+                case "--width" -> {
+                    width = Integer.parseInt(value);
+                }
+                case "--height" -> {
+                    height = Integer.parseInt(value);
+                }
+                case "--threads" -> {
+                    threads = Integer.parseInt(value);
+                }
+                case "--metrics" -> {
+                    metricsFile = value;
+                }
+                case "--energy" -> {
+                    energyFunction = EnergyFunction.forName(value);
+                }
+                case "--pyramid" -> {
+                    pyramidFactor = Integer.parseInt(value);
+                }
+                case "--band" -> {
+                    band = Integer.parseInt(value);
+                }
+                case "--seams-per-pass" -> {
+                    seamsPerPass = Integer.parseInt(value);
+                }
+                case "--criterion" -> {
+                    criterion = ImageEditor.Criterion.valueOf(value.toUpperCase(Locale.ROOT));
+                }
+                case "--max-pixels" -> {
+                    maxPixels = Long.parseLong(value);
+                }
+                case "--concurrent" -> {
+                    concurrent = Integer.parseInt(value);
+                }
+                case "--stream" -> {
+                    streamBandRows = Integer.parseInt(value);
+                }
+                case "--work-dir" -> {
+                    workDir = value;
+                }
+                default -> throw new IllegalArgumentException("Unknown option " + name);
+            }
         }
     }
 
+    /*
+     Non-interactive mode, for example
+     --in a.png --out b.png --width 800 --height 600 --criterion energy
+     Either width or height may be left out, sizes above the current one insert seams, --threads
+     sets the number of energy threads and --metrics names a file to write the statistics to as
+     JSON. The criterion is either greenest or energy and defaults to energy, --energy picks the
+     energy function: sobel (the default), sobel-vector, dual or forward.
+     --pyramid 4 searches seams on an image 4 times smaller and refines them within --band columns (default 8).
+     --seams-per-pass 16 removes up to 16 seams found by one search at a time.
+     --stream 0 carves the width out of core for images larger than the heap, and --work-dir
+     says where its work files go, see runStreaming.
+     With a directory as --in, every image in it is written to the --out directory, see runBatch.
+     */
+    private void runHeadless(String[] args) throws IOException {
+        Options options = Options.parse(args);
+        if (Files.isDirectory(Path.of(options.in))) {
+            runBatch(options);
+            return;
+        }
+        if (options.streamBandRows >= 0) {
+            runStreaming(options);
+            return;
+        }
+        options.reject("single file mode", "--max-pixels", "--concurrent", "--work-dir");
+        try (editor) {
+            editor.setParallelism(options.threads);
+            editor.setEnergyFunction(options.energyFunction);
+            editor.setSeamsPerPass(options.seamsPerPass);
+            editor.setApproximateSearch(options.pyramidFactor, options.band);
+            editor.load(options.in);
+            int width = options.width;
+            int height = options.height;
+            // Sizes above the current one are reached by inserting seams instead of removing them
+            if (width > editor.getImage().getWidth()) {
+                editor.enlargeToWidth(width);
+            } else if (width >= 0) {
+                editor.carveToWidth(width, options.criterion);
+            }
+            if (height > editor.getImage().getHeight()) {
+                editor.enlargeToHeight(height);
+            } else if (height >= 0) {
+                editor.carveToHeight(height, options.criterion);
+            }
+            editor.save(options.out);
+            if (options.metricsFile != null) {
+                writeMetrics(options.metricsFile);
+            }
+        }
+    }
+
+    /*
+     Batch mode: all files of a directory in one JVM, on virtual threads. --concurrent sets the
+     number of images computed at once (default one per processor) and --max-pixels the total
+     pixels of the images in flight. One line is printed per file, failed files do not stop the run.
+     --threads, --metrics, --stream and --work-dir only apply to a single file and are refused.
+     */
+    private static void runBatch(Options options) throws IOException {
+        options.reject("batch mode", "--threads", "--metrics", "--stream", "--work-dir");
+        BatchRunner batch = new BatchRunner(Path.of(options.in), Path.of(options.out));
+        batch.setTargetSize(options.width, options.height);
+        batch.setCriterion(options.criterion);
+        batch.setEnergyFunction(options.energyFunction);
+        batch.setApproximateSearch(options.pyramidFactor, options.band);
+        batch.setSeamsPerPass(options.seamsPerPass);
+        if (options.concurrent >= 0) {
+            batch.setComputePermits(options.concurrent);
+        }
+        if (options.maxPixels >= 0) {
+            batch.setMaxPixelsInFlight(options.maxPixels);
+        }
+        int failed = 0;
+        for (BatchRunner.Result result : batch.run()) {
+            System.out.println(result);
+            failed += result.succeeded() ? 0 : 1;
+        }
+        System.out.println(failed == 0 ? "All files processed" : failed + " files failed");
+    }
+
+    /*
+     Streaming mode: the image is decoded into a memory mapped file and carved in row bands, so the
+     heap needed does not grow with the height, see StreamingCarver. Only the width can change,
+     --stream gives the rows decoded at a time (0 for about a million pixels per band) and
+     --work-dir the directory of the work files (default: that of --out). The search is always
+     exact, one seam per pass on the calling thread, so the options tuning the editor are refused.
+     */
+    private static void runStreaming(Options options) throws IOException {
+        options.reject("streaming mode", "--height", "--threads", "--metrics", "--pyramid", "--band",
+                "--seams-per-pass", "--max-pixels", "--concurrent");
+        if (options.width < 0) {
+            throw new IllegalArgumentException("Streaming mode only carves the width, give --width");
+        }
+        StreamingCarver carver = new StreamingCarver(Path.of(options.in), Path.of(options.out));
+        carver.setCriterion(options.criterion);
+        carver.setEnergyFunction(options.energyFunction);
+        carver.setBandRows(options.streamBandRows);
+        if (options.workDir != null) {
+            carver.setWorkDirectory(Path.of(options.workDir));
+        }
+        carver.carveToWidth(options.width);
+    }
+
+    /*
+     Server mode, for example --serve 8080 --workers 4 --queue 16 --timeout 30
+     Serves POST /carve on localhost until the JVM is stopped, see CarveServer. Workers default to
+     one per processor, the queue to 16 requests and the timeout to 30 seconds. --max-pixels
+     caps the pixels of one image (default: half the heap shared by the workers).
+     */
+    private static void runServer(String[] args) throws IOException {
+        int port = Integer.parseInt(args[1]);
+        int workers = Runtime.getRuntime().availableProcessors();
+        int queue = DEFAULT_QUEUE;
+        int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+        long maxPixels = -1;
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--workers" -> {
+                    workers = Integer.parseInt(value);
+                }
+                case "--queue" -> {
+                    queue = Integer.parseInt(value);
+                }
+                case "--timeout" -> {
+                    timeoutSeconds = Integer.parseInt(value);
+                }
+                case "--max-pixels" -> {
+                    maxPixels = Long.parseLong(value);
+                }
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        CarveServer server = new CarveServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), workers,
+                queue, Duration.ofSeconds(timeoutSeconds));
+        if (maxPixels >= 0) {
+            server.setMaxPixels(maxPixels);
+        }
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.getPort() + "/carve");
+    }
 
     public static void main(String[] args) {
         /*Keep main method short. Only create a main class and execute
         the entry point. Also, you may handle specific exceptions here*/
         try {
-            new Main().run();
-        } catch (IOException e) {
+            if (args.length > 1 && args[0].equals("--serve")) {
+                runServer(args);
+            } else if (args.length > 0) {
+                new Main().runHeadless(args);
+            } else {
+                new Main().run();
+            }
+        } catch (IOException | IllegalArgumentException e) {
             System.out.println(e.getMessage());
         }
     }
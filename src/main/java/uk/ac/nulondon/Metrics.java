@@ -0,0 +1,201 @@
+package uk.ac.nulondon;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ Counts, latencies and allocated bytes of the editor's operations, plus gauges that are read
+ when a snapshot is taken. Recording only adds to LongAdders, so it takes no locks and is cheap
+ enough to leave on. Latencies go into power-of-two nanosecond buckets, so percentiles are
+ reported as the upper bound of their bucket (at most 2x off).
+ Allocated bytes are those of the recording thread, work done on pool threads is not included.
+ */
+public class Metrics {
+
+    // The operations that are measured
+    public enum Operation {
+        LOAD,
+        DECODE,
+        ENERGY,
+        SEAM_SEARCH,
+        REMOVE_SEAM,
+        ADD_SEAM,
+        HIGHLIGHT,
+        PREVIEW,
+        SAVE
+    }
+
+    // One bucket per power of two nanoseconds
+    private static final int BUCKETS = 64;
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    // The percentiles reported for every operation
+    private static final double MEDIAN = 0.5;
+    private static final double P99 = 0.99;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Whether this JVM can report the bytes allocated by the current thread
+    private static final boolean ALLOCATION_SUPPORTED = THREADS instanceof com.sun.management.ThreadMXBean bean
+            && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+
+    // A registry that records nothing, for images that are not instrumented
+    static final Metrics DISABLED = new Metrics(false);
+
+    private final boolean enabled;
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    public Metrics() {
+        this(true);
+    }
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    // Bytes allocated so far by the current thread, 0 if the JVM cannot tell
+    public static long allocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes();
+    }
+
+    /*
+     Records one operation that started at startNanos (System.nanoTime()) when the current thread
+     had allocated startAllocated bytes (allocatedBytes()).
+     */
+    public void record(Operation operation, long startNanos, long startAllocated) {
+        if (!enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        long allocated = allocatedBytes() - startAllocated;
+        stats.get(operation).add(nanos, allocated);
+    }
+
+    // Registers a value that is read every time a snapshot is taken
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public long count(Operation operation) {
+        return stats.get(operation).count.sum();
+    }
+
+    // Human readable summary, one line per operation that has run and one per gauge
+    public String summary() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            long count = s.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            text.append(String.format(Locale.ROOT,
+                    "%-12s count %d, mean %.3f ms, p50 <= %.3f ms, p99 <= %.3f ms, allocated %d bytes%n",
+                    entry.getKey().name().toLowerCase(Locale.ROOT), count,
+                    s.totalNanos.sum() / NANOS_PER_MILLI / count,
+                    s.percentile(MEDIAN) / NANOS_PER_MILLI, s.percentile(P99) / NANOS_PER_MILLI,
+                    s.allocated.sum()));
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            text.append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong())
+                    .append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    /*
+     Snapshot as JSON: {"operations": {"load": {"count": ..., "totalNanos": ..., "allocatedBytes": ...,
+     "p50Nanos": ..., "p99Nanos": ..., "histogram": {"<bucket upper bound in ns>": count, ...}}, ...},
+     "gauges": {"width": ..., ...}}
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"operations\": {");
+        boolean first = true;
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            json.append(first ? "" : ", ").append('"').append(entry.getKey().name().toLowerCase(Locale.ROOT))
+                    .append("\": {\"count\": ").append(s.count.sum())
+                    .append(", \"totalNanos\": ").append(s.totalNanos.sum())
+                    .append(", \"allocatedBytes\": ").append(s.allocated.sum())
+                    .append(", \"p50Nanos\": ").append(s.percentile(MEDIAN))
+                    .append(", \"p99Nanos\": ").append(s.percentile(P99))
+                    .append(", \"histogram\": {");
+            boolean firstBucket = true;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                long count = s.buckets[bucket].sum();
+                if (count > 0) {
+                    json.append(firstBucket ? "" : ", ").append('"').append(upperBound(bucket)).append("\": ")
+                            .append(count);
+                    firstBucket = false;
+                }
+            }
+            json.append("}}");
+            first = false;
+        }
+        json.append("}, \"gauges\": {");
+        first = true;
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            json.append(first ? "" : ", ").append('"').append(gauge.getKey()).append("\": ")
+                    .append(gauge.getValue().getAsLong());
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+
+    // Largest latency in nanoseconds that falls into a bucket
+    private static long upperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+    }
+
+    // Totals and latency histogram of one operation
+    private static final class Stats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Stats() {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                buckets[bucket] = new LongAdder();
+            }
+        }
+
+        void add(long nanos, long allocatedBytes) {
+            count.increment();
+            totalNanos.add(nanos);
+            allocated.add(allocatedBytes);
+            buckets[BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(1, nanos))].increment();
+        }
+
+        // Upper bound of the bucket holding the given fraction of the recorded latencies, 0 if none
+        long percentile(double fraction) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets[bucket].sum();
+                if (seen >= rank) {
+                    return upperBound(bucket);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+    }
+}
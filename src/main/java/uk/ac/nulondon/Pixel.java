@@ -2,36 +2,77 @@ package uk.ac.nulondon;
 
 import java.awt.*;
 
+/*
+ A Pixel is a lightweight view of one pixel of an Image: its position at the time it was
+ read plus its packed ARGB colour. The image itself stores plain ints, Pixels are only
+ created on demand (for example for the pixels of a seam).
+ */
 public class Pixel {
-    Pixel left;
-    Pixel right;
+    // Bit offsets of the channels of a packed ARGB colour and the mask of one channel
+    static final int BLUE_SHIFT = 0;
+    static final int GREEN_SHIFT = 8;
+    static final int RED_SHIFT = 16;
+    static final int ALPHA_SHIFT = 24;
+    static final int CHANNEL_BITS = 8;
+    static final int CHANNEL_MASK = 0xFF;
+
+    // Brightness of every possible sum of the three channels, the same doubles as dividing by 3
+    private static final double[] BRIGHTNESS_OF_SUM = new double[3 * CHANNEL_MASK + 1];
+
+    static {
+        for (int sum = 0; sum < BRIGHTNESS_OF_SUM.length; sum++) {
+            BRIGHTNESS_OF_SUM[sum] = (double) sum / 3;
+        }
+    }
+
+    // Logical position of the pixel in the image, -1 for a detached pixel
+    int row;
+    int col;
 
     double energy;
 
-    Color color;
+    // Packed ARGB colour
+    int rgb;
 
     public Pixel(int rgb) {
-        this.color = new Color(rgb);
+        this(-1, -1, rgb);
     }
 
     public Pixel(Color color) {
-        this.color = color;
+        this(color.getRGB());
+    }
+
+    Pixel(int row, int col, int rgb) {
+        this.row = row;
+        this.col = col;
+        this.rgb = rgb;
     }
 
     public double brightness() {
+        return brightness(rgb);
+    }
+
+    public double getGreen() {
+        return green(rgb);
+    }
 
-        // Calculate the brightness of the pixel based on its RGB color components.
-        // Get the blue, green, and red color components of the pixel
-        int blue = color.getBlue();   // Blue component of the pixel
-        int green = color.getGreen(); // Green component of the pixel
-        int red = color.getRed();     // Red component of the pixel
+    public int getRGB() {
+        return rgb;
+    }
 
-        // Calculate the brightness by averaging the RGB values
-        // This gives a simple approximation of the pixel's brightness based on its color components
-        return (double) (blue + green + red) / 3;
+    /*
+     Calculate the brightness of a packed colour by averaging its RGB components. Energy passes
+     call this for every pixel, so the division is looked up instead of computed.
+     */
+    static double brightness(int rgb) {
+        int blue = (rgb >> BLUE_SHIFT) & CHANNEL_MASK;    // Blue component of the pixel
+        int green = (rgb >> GREEN_SHIFT) & CHANNEL_MASK;  // Green component of the pixel
+        int red = (rgb >> RED_SHIFT) & CHANNEL_MASK;      // Red component of the pixel
+        return BRIGHTNESS_OF_SUM[blue + green + red];
     }
 
-    public double getGreen() {
-        return color.getGreen();
+    // Green component of a packed colour
+    static double green(int rgb) {
+        return (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
     }
 }
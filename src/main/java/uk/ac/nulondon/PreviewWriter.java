@@ -0,0 +1,202 @@
+package uk.ac.nulondon;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ Writes preview PNGs on a background thread, so the interactive loop never waits for encoding.
+ Only the newest preview matters: a preview submitted while another is being encoded aborts that
+ write, and previews that were never started are simply replaced. Every preview goes to a
+ temporary file first and is moved over the target once complete, so the target never holds a
+ half written or outdated image. A preview that fails is counted in the previewFailures gauge and
+ reported by the next await(), the editor itself carries on.
+ */
+public class PreviewWriter {
+
+    // Deflate level 1 (the PNG writer uses level 9 - round(9 * quality)), fast at a larger file size
+    private static final float PREVIEW_QUALITY = 8f / 9;
+
+    private final Metrics metrics;
+
+    // Created with the first preview, its only thread is a daemon so it never keeps the JVM alive
+    private ExecutorService executor;
+
+    // Guards the fields below, which the caller and the writer thread both touch
+    private final Object lock = new Object();
+
+    // Newest preview that has not been started yet, and where it goes
+    private BufferedImage pending;
+    private Path pendingTarget;
+
+    // Whether a write task is queued or running
+    private boolean scheduled;
+
+    // Writer of the preview being encoded, null when idle
+    private ImageWriter activeWriter;
+
+    // Increases with every submitted or discarded preview, a write only lands if it is still current
+    private long generation;
+
+    // Previews that could not be written, and the latest failure not yet reported by await()
+    private long failures;
+    private IOException unreportedFailure;
+
+    public PreviewWriter(Metrics metrics) {
+        this.metrics = metrics;
+        metrics.gauge("previewFailures", this::getFailures);
+    }
+
+    // Number of previews that could not be written so far
+    public long getFailures() {
+        synchronized (lock) {
+            return failures;
+        }
+    }
+
+    // Queues img to be written to target, replacing any preview that is still pending or being written
+    public void submit(BufferedImage img, Path target) {
+        synchronized (lock) {
+            generation++;
+            pending = img;
+            pendingTarget = target;
+            abortActiveWrite();
+            if (!scheduled) {
+                scheduled = true;
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "preview-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                executor.execute(this::writePending);
+            }
+        }
+    }
+
+    // Drops the pending preview and aborts the one being written, the preview file keeps its last complete image
+    public void discard() {
+        synchronized (lock) {
+            generation++;
+            pending = null;
+            abortActiveWrite();
+        }
+    }
+
+    // Waits until every submitted preview has been written or dropped, throws if one failed since the last call
+    public void await() throws IOException {
+        ExecutorService current;
+        synchronized (lock) {
+            current = executor;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            // The single thread runs tasks in order, so this runs after every earlier write
+            current.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the preview", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Preview writer failed", e.getCause());
+        }
+        IOException failure;
+        synchronized (lock) {
+            failure = unreportedFailure;
+            unreportedFailure = null;
+        }
+        if (failure != null) {
+            throw new IOException("Could not write preview: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void abortActiveWrite() {
+        if (activeWriter != null) {
+            activeWriter.abort();
+        }
+    }
+
+    // Writer thread: keeps writing the newest pending preview until there is none
+    private void writePending() {
+        while (true) {
+            BufferedImage img;
+            Path target;
+            ImageWriter writer;
+            long written;
+            synchronized (lock) {
+                img = pending;
+                target = pendingTarget;
+                pending = null;
+                if (img == null) {
+                    activeWriter = null;
+                    scheduled = false;
+                    return;
+                }
+                writer = ImageIO.getImageWritersByFormatName("png").next();
+                activeWriter = writer;
+                written = generation;
+            }
+            long start = System.nanoTime();
+            long allocated = Metrics.allocatedBytes();
+            try {
+                Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), "preview", ".png");
+                try {
+                    // Skipped when already stale: write() clears aborts that came before it started
+                    boolean encoded = encode(writer, img, temp, written);
+                    synchronized (lock) {
+                        // A newer preview or a discard means this one is stale, even if it completed
+                        if (encoded && written == generation) {
+                            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                                    StandardCopyOption.ATOMIC_MOVE);
+                        }
+                    }
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException e) {
+                // A failed preview must not take down the editor, the next preview tries again
+                synchronized (lock) {
+                    failures++;
+                    unreportedFailure = e;
+                }
+            } finally {
+                writer.dispose();
+            }
+            metrics.record(Metrics.Operation.PREVIEW, start, allocated);
+        }
+    }
+
+    /*
+     Encodes img as a PNG with fast compression and no interlacing, unless the preview of the given
+     generation has been replaced or discarded by then. Returns whether it was encoded.
+     */
+    private boolean encode(ImageWriter writer, BufferedImage img, Path file, long written) throws IOException {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(PREVIEW_QUALITY);
+        param.setProgressiveMode(ImageWriteParam.MODE_DISABLED);
+        Files.deleteIfExists(file);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            synchronized (lock) {
+                if (written != generation) {
+                    return false;
+                }
+            }
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), param);
+            return true;
+        }
+    }
+}
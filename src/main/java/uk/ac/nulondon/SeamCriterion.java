@@ -0,0 +1,112 @@
+package uk.ac.nulondon;
+
+/*
+ What a seam search optimizes: the seam with the highest total value over its pixels is chosen.
+ value() is called for every pixel of the view in every search with primitive arguments only, so
+ criteria never box and a custom criterion is called exactly like the built-in ones.
+
+ row and col are the position in the view the search runs on, so for horizontal seams (searched
+ on the transposed view) rows are image columns and columns are image rows. energy is the up to
+ date energy of the pixel if usesEnergy() is true, otherwise it is whatever was last computed.
+ */
+@FunctionalInterface
+public interface SeamCriterion {
+
+    // Lowest total energy, what carving normally removes
+    SeamCriterion LOWEST_ENERGY = (row, col, argb, energy) -> -energy;
+
+    // Highest total of one colour channel
+    SeamCriterion REDDEST = channel(Pixel.RED_SHIFT);
+    SeamCriterion GREENEST = channel(Pixel.GREEN_SHIFT);
+    SeamCriterion BLUEST = channel(Pixel.BLUE_SHIFT);
+
+    double value(int row, int col, int argb, double energy);
+
+    /*
+     Whether value() reads the energy. The energy is only brought up to date for criteria that do,
+     and only their seams pay the step costs of energy functions like forward energy.
+     */
+    default boolean usesEnergy() {
+        return true;
+    }
+
+    // Called after a seam chosen by this criterion was removed, for criteria that track the image
+    default void seamRemoved(int[] seam) {
+    }
+
+    // Highest total of the 8 bit channel at the given shift of the packed ARGB colour: 24, 16, 8 or 0
+    static SeamCriterion channel(int shift) {
+        if (shift < 0 || shift > Pixel.ALPHA_SHIFT || shift % Pixel.CHANNEL_BITS != 0) {
+            throw new IllegalArgumentException("Channel shift must be 0, 8, 16 or 24, got " + shift);
+        }
+        return new Channel(shift);
+    }
+
+    /*
+     Adds a weight per pixel to the values of base: positive weights draw seams into a region and
+     large negative ones keep seams out of it. weights holds the rows of the view the seams are
+     searched on, width values each. The mask drops the pixels of every removed seam, so it keeps
+     matching the image while ImageEditor carves with it.
+     */
+    static SeamCriterion masked(SeamCriterion base, double[] weights, int width) {
+        if (width < 1 || weights.length % width != 0) {
+            throw new IllegalArgumentException("A mask of width " + width + " cannot hold " + weights.length
+                    + " weights");
+        }
+        return new WeightMask(base, weights.clone(), width);
+    }
+
+    final class Channel implements SeamCriterion {
+        private final int shift;
+
+        private Channel(int shift) {
+            this.shift = shift;
+        }
+
+        @Override
+        public double value(int row, int col, int argb, double energy) {
+            return (argb >>> shift) & Pixel.CHANNEL_MASK;
+        }
+
+        @Override
+        public boolean usesEnergy() {
+            return false;
+        }
+    }
+
+    final class WeightMask implements SeamCriterion {
+        private final SeamCriterion base;
+        private final double[] weights;
+
+        // Rows keep their original stride, removed seams only shorten them
+        private final int stride;
+        private int width;
+
+        private WeightMask(SeamCriterion base, double[] weights, int width) {
+            this.base = base;
+            this.weights = weights;
+            this.stride = width;
+            this.width = width;
+        }
+
+        @Override
+        public double value(int row, int col, int argb, double energy) {
+            return base.value(row, col, argb, energy) + weights[row * stride + col];
+        }
+
+        @Override
+        public boolean usesEnergy() {
+            return base.usesEnergy();
+        }
+
+        @Override
+        public void seamRemoved(int[] seam) {
+            width--;
+            for (int row = 0; row < seam.length; row++) {
+                int offset = row * stride;
+                System.arraycopy(weights, offset + seam[row] + 1, weights, offset + seam[row], width - seam[row]);
+            }
+            base.seamRemoved(seam);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ A saved editing session: the pixels and cached energies of an image plus its undo and redo
+ stacks, so editing can resume without decoding the original or recomputing any energy.
+
+ Layout, all big endian:
+   header   magic "SEAM", version, width, height, energy function, transposed flag (6 ints)
+   energies width * height doubles in row order, 8 byte aligned
+   pixels   width * height packed ARGB ints in row order
+   history  undo count, redo count (2 ints), then the undo and the redo entries, each oldest
+            first, in the serialized form of SeamEditCommand
+   checksum CRC32 of everything before it (1 long)
+
+ Files are written through a temporary file that is moved over the target once complete, and read
+ through a memory mapping, so the arrays are bulk copied straight out of the page cache.
+ */
+final class SessionFile {
+
+    private static final int MAGIC = 0x5345414D;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 6 * Integer.BYTES;
+    private static final int HISTORY_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int CHECKSUM_BYTES = Long.BYTES;
+
+    // Codes of the energy functions a session can be saved with
+    private static final int SOBEL = 0;
+    private static final int DUAL_GRADIENT = 1;
+    private static final int FORWARD = 2;
+    private static final int VECTORIZED_SOBEL = 3;
+
+    private SessionFile() {
+    }
+
+    // What a session file holds, the commands of the stacks edit the restored image
+    record Contents(Image image, List<ImageEditor.SeamEditCommand> undo, List<ImageEditor.SeamEditCommand> redo) {
+    }
+
+    static void write(Path target, Image image, UndoHistory history) throws IOException {
+        int energyCode = codeOf(image.getEnergyFunction());
+        // The stored grid is the underlying image, whatever view the editor had
+        boolean transposed = image.isTransposed();
+        int width = transposed ? image.getHeight() : image.getWidth();
+        int height = transposed ? image.getWidth() : image.getHeight();
+        int[] pixels = new int[width * height];
+        double[] energies = new double[width * height];
+        image.copyState(pixels, energies);
+
+        List<ByteBuffer> undo = serialize(history.undoEntries());
+        List<ByteBuffer> redo = serialize(history.redoEntries());
+        long size = HEADER_BYTES + (long) (Double.BYTES + Integer.BYTES) * pixels.length + HISTORY_HEADER_BYTES
+                + bytesOf(undo) + bytesOf(redo) + CHECKSUM_BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Session of " + size + " bytes is too large to save");
+        }
+
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), "session", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(energyCode)
+                        .putInt(transposed ? 1 : 0);
+                buffer.asDoubleBuffer().put(energies);
+                buffer.position(buffer.position() + Double.BYTES * energies.length);
+                buffer.asIntBuffer().put(pixels);
+                buffer.position(buffer.position() + Integer.BYTES * pixels.length);
+                buffer.putInt(undo.size()).putInt(redo.size());
+                for (ByteBuffer entry : undo) {
+                    buffer.put(entry);
+                }
+                for (ByteBuffer entry : redo) {
+                    buffer.put(entry);
+                }
+                buffer.putLong(checksum(buffer, buffer.position()));
+                buffer.force();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Reads a session, throws IOException if the file is not a complete and intact session
+    static Contents read(Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + HISTORY_HEADER_BYTES + CHECKSUM_BYTES) {
+                throw new IOException("Not a session file: " + source);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt session file " + source + ": " + size + " bytes");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a session file: " + source);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported session file version " + version + " in " + source);
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int energyCode = buffer.getInt();
+            int transposed = buffer.getInt();
+            long cells = (long) width * height;
+            if (width < 1 || height < 1
+                    || HEADER_BYTES + (Double.BYTES + Integer.BYTES) * cells + HISTORY_HEADER_BYTES + CHECKSUM_BYTES
+                    > size) {
+                throw new IOException("Corrupt session file " + source + ": " + width + "x" + height
+                        + " does not fit " + size + " bytes");
+            }
+            // Everything below is only trusted once the checksum matches
+            int end = (int) size - CHECKSUM_BYTES;
+            if (checksum(buffer, end) != buffer.getLong(end)) {
+                throw new IOException("Corrupt session file " + source + ": checksum mismatch");
+            }
+            if (energyCode < SOBEL || energyCode > VECTORIZED_SOBEL || (transposed & ~1) != 0) {
+                throw new IOException("Corrupt session file " + source + ": bad header");
+            }
+
+            double[] energies = new double[(int) cells];
+            int[] pixels = new int[(int) cells];
+            buffer.asDoubleBuffer().get(energies);
+            buffer.position(buffer.position() + Double.BYTES * energies.length);
+            buffer.asIntBuffer().get(pixels);
+            buffer.position(buffer.position() + Integer.BYTES * pixels.length);
+            Image image = new Image(width, height, pixels, energies, functionOf(energyCode));
+            if (transposed == 1) {
+                image.transpose();
+            }
+
+            int undoCount = buffer.getInt();
+            int redoCount = buffer.getInt();
+            if (undoCount < 0 || redoCount < 0) {
+                throw new IOException("Corrupt session file " + source + ": bad history");
+            }
+            buffer.limit(end);
+            List<ImageEditor.SeamEditCommand> undo = deserialize(image, buffer, undoCount);
+            List<ImageEditor.SeamEditCommand> redo = deserialize(image, buffer, redoCount);
+            if (buffer.hasRemaining()) {
+                throw new IOException("Corrupt session file " + source + ": trailing bytes");
+            }
+            checkHistory(source, image, undo, redo);
+            return new Contents(image, undo, redo);
+        }
+    }
+
+    /*
+     Checks that every edit of the history fits the image it will be applied to. Undo entries are
+     replayed backwards from the restored image, each putting its seam back, and redo entries
+     forwards, each removing it again, so a record made for another size is rejected here instead
+     of failing half way through an undo or redo.
+     */
+    private static void checkHistory(Path source, Image image, List<ImageEditor.SeamEditCommand> undo,
+                                     List<ImageEditor.SeamEditCommand> redo) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        for (int i = undo.size() - 1; i >= 0; i--) {
+            ImageEditor.SeamEditCommand command = undo.get(i);
+            if (command.isHorizontal()) {
+                // An inserted seam may also go after the last row or column
+                checkSeam(source, command.seam(), width, height);
+                height++;
+            } else {
+                checkSeam(source, command.seam(), height, width);
+                width++;
+            }
+        }
+        width = image.getWidth();
+        height = image.getHeight();
+        for (int i = redo.size() - 1; i >= 0; i--) {
+            ImageEditor.SeamEditCommand command = redo.get(i);
+            int across = command.isHorizontal() ? height : width;
+            if (across < 2) {
+                throw new IOException("Corrupt session file " + source + ": redo removes the last pixel");
+            }
+            if (command.isHorizontal()) {
+                checkSeam(source, command.seam(), width, height - 1);
+                height--;
+            } else {
+                checkSeam(source, command.seam(), height, width - 1);
+                width--;
+            }
+        }
+    }
+
+    // Checks that a seam has one column per row and that every column is within 0..maxColumn
+    private static void checkSeam(Path source, int[] seam, int rows, int maxColumn) throws IOException {
+        if (seam.length != rows) {
+            throw new IOException("Corrupt session file " + source + ": seam of " + seam.length
+                    + " pixels in a history of " + rows + " rows");
+        }
+        for (int col : seam) {
+            if (col < 0 || col > maxColumn) {
+                throw new IOException("Corrupt session file " + source + ": seam column " + col
+                        + " outside 0.." + maxColumn);
+            }
+        }
+    }
+
+    // CRC32 of the first length bytes of buffer, leaves its position alone
+    private static long checksum(ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(length));
+        return crc.getValue();
+    }
+
+    private static List<ByteBuffer> serialize(List<ImageEditor.SeamEditCommand> commands) {
+        List<ByteBuffer> entries = new ArrayList<>(commands.size());
+        for (ImageEditor.SeamEditCommand command : commands) {
+            entries.add(command.toBytes());
+        }
+        return entries;
+    }
+
+    private static long bytesOf(List<ByteBuffer> entries) {
+        long bytes = 0;
+        for (ByteBuffer entry : entries) {
+            bytes += entry.remaining();
+        }
+        return bytes;
+    }
+
+    private static List<ImageEditor.SeamEditCommand> deserialize(Image image, ByteBuffer buffer, int count)
+            throws IOException {
+        // The count is only bounded by the file, so the list grows as entries are actually read
+        List<ImageEditor.SeamEditCommand> commands = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            commands.add(ImageEditor.SeamEditCommand.fromBytes(image, buffer));
+        }
+        return commands;
+    }
+
+    private static int codeOf(EnergyFunction function) {
+        if (function == EnergyFunction.SOBEL) {
+            return SOBEL;
+        } else if (function == EnergyFunction.DUAL_GRADIENT) {
+            return DUAL_GRADIENT;
+        } else if (function == EnergyFunction.FORWARD) {
+            return FORWARD;
+        } else if (function.getClass().getName().equals("uk.ac.nulondon.VectorSobel")) {
+            // Compared by name, so saving never loads the incubator module
+            return VECTORIZED_SOBEL;
+        }
+        throw new IllegalArgumentException("Sessions can only be saved with a built-in energy function, got "
+                + function);
+    }
+
+    private static EnergyFunction functionOf(int code) {
+        return switch (code) {
+            case SOBEL -> EnergyFunction.SOBEL;
+            case DUAL_GRADIENT -> EnergyFunction.DUAL_GRADIENT;
+            case FORWARD -> EnergyFunction.FORWARD;
+            // Falls back to SOBEL when this JVM has no Vector API, both compute the same energies
+            default -> EnergyFunction.vectorizedSobel();
+        };
+    }
+}
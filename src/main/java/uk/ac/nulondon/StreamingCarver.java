@@ -0,0 +1,520 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Vector;
+
+/*
+ Out-of-core carving for images larger than the heap. Nothing of the size of the whole image is
+ ever on the heap:
+   - the input is decoded band by band with source region reads into a work file of packed
+     ARGB ints, which is memory mapped. Rows keep the original width as their stride, removed
+     seams only shorten them.
+   - every seam is found in one pass down the file. Three luminance rows roll down as in
+     Image.calculateEnergy, energies are computed for the row in the middle and relaxed into the
+     seam totals of the row above, so the search holds O(width) doubles. The direction every pixel
+     came from goes to a second mapped file, one byte per pixel.
+   - the seam is removed while it is backtracked from the bottom row up, so it is never stored.
+   - the result is handed to the PNG ImageWriter as a RenderedImage that reads the rows it asks
+     for from the mapped file.
+ Peak heap is a few rows plus one decoded band, whatever the height. Seams and ties are the same
+ as those of ImageEditor.carveToWidth with one seam per pass and the exact search.
+
+ Only vertical seams are streamed: a horizontal seam search needs the totals of a whole column,
+ which is O(height) state, so heights are not changed. Formats without random access, like PNG,
+ decode every band from the start of the image, which is why bands are about a million pixels.
+ */
+public class StreamingCarver {
+
+    // Pixels decoded per source region read when no band height is set
+    static final int BAND_PIXELS = 1024 * 1024;
+
+    // Bytes mapped per segment of a work file, rows never straddle two segments
+    private static final long SEGMENT_BYTES = 1024L * 1024 * 1024;
+
+    private final Path input;
+    private final Path output;
+
+    private ImageEditor.Criterion criterion = ImageEditor.Criterion.ENERGY;
+    private EnergyFunction energyFunction = EnergyFunction.SOBEL;
+
+    // Rows per decoded band, 0 picks them from BAND_PIXELS
+    private int bandRows;
+
+    // Directory of the work files, null for the directory of the output
+    private Path workDirectory;
+
+    public StreamingCarver(Path input, Path output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    public void setCriterion(ImageEditor.Criterion criterion) {
+        this.criterion = criterion;
+    }
+
+    public void setEnergyFunction(EnergyFunction energyFunction) {
+        this.energyFunction = energyFunction;
+    }
+
+    // Rows decoded per source region read, 0 for about BAND_PIXELS pixels per band
+    public void setBandRows(int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("Band rows must be at least 0, got " + rows);
+        }
+        bandRows = rows;
+    }
+
+    /*
+     Directory the work files are created in. They are about five bytes per input pixel, so the
+     default is the output's directory rather than the temporary one, which is often in memory.
+     */
+    public void setWorkDirectory(Path directory) {
+        workDirectory = directory;
+    }
+
+    /*
+     Removes seams from the input until it is width pixels wide and writes the result to the output
+     as a PNG, with alpha only if the input has it. The work files live in the work directory and
+     are deleted afterwards.
+     */
+    public void carveToWidth(int width) throws IOException {
+        Path directory = workDirectory != null ? workDirectory : output.toAbsolutePath().getParent();
+        Path pixelFile = Files.createTempFile(directory, "seam-stream", ".pixels");
+        Path directionFile;
+        try {
+            directionFile = Files.createTempFile(directory, "seam-stream", ".directions");
+        } catch (IOException e) {
+            Files.deleteIfExists(pixelFile);
+            throw e;
+        }
+        try (FileChannel pixelChannel = FileChannel.open(pixelFile, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+             FileChannel directionChannel = FileChannel.open(directionFile, StandardOpenOption.READ,
+                     StandardOpenOption.WRITE)) {
+            PixelFile pixels = decode(pixelChannel);
+            if (width < 1 || width > pixels.width) {
+                throw new IllegalArgumentException("Can carve to a width between 1 and " + pixels.width + ", got "
+                        + width);
+            }
+            if (width < pixels.width) {
+                MappedRows directions = new MappedRows(directionChannel, pixels.stride, pixels.height, 1);
+                Pass pass = new Pass(pixels, directions);
+                while (pixels.width > width) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Carving interrupted");
+                    }
+                    pass.removeSeam();
+                }
+            }
+            write(pixels);
+        } finally {
+            Files.deleteIfExists(pixelFile);
+            Files.deleteIfExists(directionFile);
+        }
+    }
+
+    // Decodes the input band by band into the pixel file
+    private PixelFile decode(FileChannel channel) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Not a readable image: " + input);
+            }
+            ImageReader reader = readers.next();
+            try {
+                // Not forward only, every band may seek back to the start of the image data
+                reader.setInput(in, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                PixelFile pixels = new PixelFile(new MappedRows(channel, width, height, Integer.BYTES), width, height);
+                int rows = bandRows > 0 ? bandRows : Math.max(1, BAND_PIXELS / width);
+                int[] band = new int[width * Math.min(rows, height)];
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int from = 0; from < height; from += rows) {
+                    int count = Math.min(rows, height - from);
+                    param.setSourceRegion(new Rectangle(0, from, width, count));
+                    BufferedImage decoded = reader.read(0, param);
+                    pixels.hasAlpha = decoded.getColorModel().hasAlpha();
+                    decoded.getRGB(0, 0, width, count, band, 0, width);
+                    for (int row = 0; row < count; row++) {
+                        pixels.rows.ints(from + row).put(0, band, row * width, width);
+                    }
+                }
+                return pixels;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Encodes the carved pixels, the writer pulls them a few rows at a time
+    private void write(PixelFile pixels) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+        if (!writers.hasNext()) {
+            throw new IOException("No PNG writer available");
+        }
+        ImageWriter writer = writers.next();
+        Files.deleteIfExists(output);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(output.toFile())) {
+            if (out == null) {
+                throw new IOException("Cannot write " + output);
+            }
+            writer.setOutput(out);
+            writer.write(new RowSource(pixels, Math.max(1, BAND_PIXELS / pixels.width)));
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /*
+     Rows of a work file, mapped in segments of at most SEGMENT_BYTES so files beyond 2 GiB can be
+     addressed. The mappings live outside the heap and there is one per gigabyte of file.
+     */
+    private static final class MappedRows {
+        private final MappedByteBuffer[] segments;
+        private final int rowsPerSegment;
+        private final long rowBytes;
+
+        MappedRows(FileChannel channel, int stride, int height, int bytesPerValue) throws IOException {
+            rowBytes = (long) stride * bytesPerValue;
+            rowsPerSegment = (int) Math.max(1, Math.min(height, SEGMENT_BYTES / rowBytes));
+            segments = new MappedByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+            for (int i = 0; i < segments.length; i++) {
+                int rows = Math.min(rowsPerSegment, height - i * rowsPerSegment);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * rowsPerSegment * rowBytes,
+                        rows * rowBytes);
+            }
+        }
+
+        // The bytes of a row, position 0 is its first column
+        ByteBuffer bytes(int row) {
+            int offset = (int) ((row % rowsPerSegment) * rowBytes);
+            return segments[row / rowsPerSegment].slice(offset, (int) rowBytes);
+        }
+
+        IntBuffer ints(int row) {
+            return bytes(row).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+    }
+
+    // The pixel file with the width left after the seams removed so far
+    private static final class PixelFile {
+        private final MappedRows rows;
+        private final int stride;
+        private final int height;
+        private int width;
+        // Whether the input has an alpha channel, which the output then keeps
+        private boolean hasAlpha;
+
+        PixelFile(MappedRows rows, int width, int height) {
+            this.rows = rows;
+            this.stride = width;
+            this.height = height;
+            this.width = width;
+        }
+    }
+
+    // The O(width) state of the seam search, reused by every seam
+    private final class Pass {
+        private final PixelFile pixels;
+        private final MappedRows directions;
+        private final SeamCriterion seamCriterion = criterion.seamCriterion();
+        private final boolean usesEnergy = seamCriterion.usesEnergy();
+        private final EnergyFunction steps = usesEnergy && energyFunction.hasStepCost() ? energyFunction : null;
+
+        private int[] currentArgb;
+        private int[] belowArgb;
+        private double[] above;
+        private double[] current;
+        private double[] below;
+        private final double[] rowEnergies;
+        private double[] parentValues;
+        private double[] rowValues;
+        private final byte[] rowDirections;
+        private final int[] tail;
+
+        Pass(PixelFile pixels, MappedRows directions) {
+            this.pixels = pixels;
+            this.directions = directions;
+            int stride = pixels.stride;
+            currentArgb = new int[stride];
+            belowArgb = new int[stride];
+            above = new double[stride];
+            current = new double[stride];
+            below = new double[stride];
+            rowEnergies = new double[stride];
+            parentValues = new double[stride];
+            rowValues = new double[stride];
+            rowDirections = new byte[stride];
+            tail = new int[stride];
+        }
+
+        // Finds the best seam in one pass down the file, then removes it on the way back up
+        void removeSeam() {
+            int width = pixels.width;
+            int height = pixels.height;
+            readRow(0, currentArgb, current);
+            for (int row = 0; row < height; row++) {
+                boolean last = row == height - 1;
+                if (!last) {
+                    readRow(row + 1, belowArgb, below);
+                }
+                if (usesEnergy) {
+                    energyFunction.energyRow(row == 0 ? null : above, current, last ? null : below, rowEnergies, 0,
+                            width, width);
+                }
+                if (row == 0) {
+                    // The value of a one pixel seam is the value of the pixel
+                    for (int col = 0; col < width; col++) {
+                        rowValues[col] = seamCriterion.value(0, col, currentArgb[col], rowEnergies[col]);
+                    }
+                } else {
+                    relax(row, width);
+                    directions.bytes(row).put(0, rowDirections, 0, width);
+                }
+                // Roll everything one row down
+                double[] values = parentValues;
+                parentValues = rowValues;
+                rowValues = values;
+                int[] argb = currentArgb;
+                currentArgb = belowArgb;
+                belowArgb = argb;
+                double[] temp = above;
+                above = current;
+                current = below;
+                below = temp;
+            }
+
+            // Same choice of bottom column as Image: the leftmost of the highest totals
+            int col = 0;
+            for (int c = 1; c < width; c++) {
+                if (parentValues[c] > parentValues[col]) {
+                    col = c;
+                }
+            }
+            for (int row = height - 1; row >= 0; row--) {
+                int next = row > 0 ? col + directions.bytes(row).get(col) : col;
+                IntBuffer rowPixels = pixels.rows.ints(row);
+                rowPixels.get(col + 1, tail, 0, width - col - 1);
+                rowPixels.put(col, tail, 0, width - col - 1);
+                col = next;
+            }
+            pixels.width--;
+        }
+
+        // Seam totals and directions of a row from the totals of the row above, as Image.relaxRow
+        private void relax(int row, int width) {
+            for (int col = 0; col < width; col++) {
+                double maxVal;
+                byte direction = 0;
+                if (steps == null) {
+                    maxVal = parentValues[col];
+                    if (col > 0 && parentValues[col - 1] > maxVal) {
+                        maxVal = parentValues[col - 1];
+                        direction = -1;
+                    }
+                    if (col < width - 1 && parentValues[col + 1] > maxVal) {
+                        maxVal = parentValues[col + 1];
+                        direction = 1;
+                    }
+                } else {
+                    // above holds the luminance of the row above, as in Image.relaxRowWithSteps
+                    double upper = above[col];
+                    double left = current[col > 0 ? col - 1 : col];
+                    double right = current[col < width - 1 ? col + 1 : col];
+                    maxVal = parentValues[col] - steps.stepCost(upper, left, right, 0);
+                    if (col > 0) {
+                        double fromLeft = parentValues[col - 1] - steps.stepCost(upper, left, right, -1);
+                        if (fromLeft > maxVal) {
+                            maxVal = fromLeft;
+                            direction = -1;
+                        }
+                    }
+                    if (col < width - 1) {
+                        double fromRight = parentValues[col + 1] - steps.stepCost(upper, left, right, 1);
+                        if (fromRight > maxVal) {
+                            maxVal = fromRight;
+                            direction = 1;
+                        }
+                    }
+                }
+                rowValues[col] = maxVal + seamCriterion.value(row, col, currentArgb[col], rowEnergies[col]);
+                rowDirections[col] = direction;
+            }
+        }
+
+        // Reads the colours of a row and computes their luminance
+        private void readRow(int row, int[] argb, double[] luminance) {
+            int width = pixels.width;
+            pixels.rows.ints(row).get(0, argb, 0, width);
+            for (int col = 0; col < width; col++) {
+                luminance[col] = Pixel.brightness(argb[col]);
+            }
+        }
+    }
+
+    /*
+     The carved image as seen by an ImageWriter: one tile per band of rows, each built from the
+     pixel file when asked for, so the writer never sees more than a band at a time.
+     */
+    private static final class RowSource implements RenderedImage {
+        private static final DirectColorModel ARGB = new DirectColorModel(32, 0x00FF0000, 0x0000FF00, 0x000000FF,
+                0xFF000000);
+        // Same packing with the alpha byte ignored, so opaque inputs are written without alpha
+        private static final DirectColorModel RGB = new DirectColorModel(24, 0x00FF0000, 0x0000FF00, 0x000000FF);
+
+        private final PixelFile pixels;
+        private final int tileHeight;
+        private final DirectColorModel colorModel;
+
+        RowSource(PixelFile pixels, int tileHeight) {
+            this.pixels = pixels;
+            this.tileHeight = Math.min(tileHeight, pixels.height);
+            this.colorModel = pixels.hasAlpha ? ARGB : RGB;
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            Rectangle bounds = rect.intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+            int[] data = new int[bounds.width * bounds.height];
+            for (int row = 0; row < bounds.height; row++) {
+                pixels.rows.ints(bounds.y + row).get(bounds.x, data, row * bounds.width, bounds.width);
+            }
+            WritableRaster raster = Raster.createWritableRaster(
+                    colorModel.createCompatibleSampleModel(bounds.width, bounds.height),
+                    new DataBufferInt(data, data.length), new Point(bounds.x, bounds.y));
+            return raster;
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, getWidth(), getHeight()));
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return getData(new Rectangle(0, tileY * tileHeight, getWidth(), tileHeight));
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster target) {
+            WritableRaster raster = target != null ? target
+                    : colorModel.createCompatibleWritableRaster(getWidth(), getHeight());
+            raster.setRect(getData(raster.getBounds()));
+            return raster;
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return java.awt.Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return new SinglePixelPackedSampleModel(DataBufferInt.TYPE_INT, getWidth(), tileHeight,
+                    colorModel.getMasks());
+        }
+
+        @Override
+        public int getWidth() {
+            return pixels.width;
+        }
+
+        @Override
+        public int getHeight() {
+            return pixels.height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (pixels.height + tileHeight - 1) / tileHeight;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return getWidth();
+        }
+
+        @Override
+        public int getTileHeight() {
+            return tileHeight;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}
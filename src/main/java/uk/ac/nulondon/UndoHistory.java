@@ -0,0 +1,259 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ Undo and redo stacks of seam edits. Each entry is a SeamEditCommand, which only holds the seam
+ columns and the original packed colours. Entries of both stacks are kept in memory up to one
+ shared byte budget; beyond that the oldest entries of the stack holding more memory are appended
+ to its temporary file and read back one at a time when the stack reaches them again. The files
+ are deleted by clear() and close(), so a history has to be closed when it is no longer used.
+ */
+public class UndoHistory implements AutoCloseable {
+
+    // Default memory budget of both stacks together
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private final Image image;
+    private final long budget;
+    private final SpillStack undo = new SpillStack();
+    private final SpillStack redo = new SpillStack();
+
+    public UndoHistory(Image image, long budget) {
+        this.image = image;
+        this.budget = budget;
+    }
+
+    // Records an edit that has just been executed, a new edit makes the redo stack meaningless
+    public void push(ImageEditor.SeamEditCommand command) throws IOException {
+        redo.clear();
+        undo.push(command);
+        fitBudget();
+    }
+
+    // Undoes the most recent edit, returns false if there is nothing to undo
+    public boolean undo() throws IOException {
+        ImageEditor.SeamEditCommand command = undo.pop();
+        if (command == null) {
+            return false;
+        }
+        command.undo();
+        redo.push(command);
+        fitBudget();
+        return true;
+    }
+
+    // Executes the most recently undone edit again, returns false if there is nothing to redo
+    public boolean redo() throws IOException {
+        ImageEditor.SeamEditCommand command = redo.pop();
+        if (command == null) {
+            return false;
+        }
+        command.execute();
+        undo.push(command);
+        fitBudget();
+        return true;
+    }
+
+    public int undoDepth() {
+        return undo.size();
+    }
+
+    public int redoDepth() {
+        return redo.size();
+    }
+
+    // Approximate bytes of the entries of both stacks that are held in memory
+    long memoryBytes() {
+        return undo.memoryBytes + redo.memoryBytes;
+    }
+
+    // Number of entries of both stacks that currently live in temporary files
+    public int spilledEntries() {
+        return undo.spilledOffsets.size() + redo.spilledOffsets.size();
+    }
+
+    // Drops both stacks, and with them the image's record of the edits they could have reversed
+    public void clear() throws IOException {
+        undo.clear();
+        redo.clear();
+        image.forgetEdits();
+    }
+
+    // Deletes the temporary files of both stacks, the history is empty afterwards
+    @Override
+    public void close() throws IOException {
+        clear();
+    }
+
+    // Temporary files the stacks currently spill to
+    List<Path> spillFiles() {
+        List<Path> files = new ArrayList<>();
+        for (SpillStack stack : List.of(undo, redo)) {
+            if (stack.file != null) {
+                files.add(stack.file);
+            }
+        }
+        return files;
+    }
+
+    // Entries of the undo stack, oldest first, including the spilled ones
+    List<ImageEditor.SeamEditCommand> undoEntries() throws IOException {
+        return undo.entries();
+    }
+
+    // Entries of the redo stack, oldest first, including the spilled ones
+    List<ImageEditor.SeamEditCommand> redoEntries() throws IOException {
+        return redo.entries();
+    }
+
+    // Replaces both stacks with the given entries, oldest first
+    void restore(List<ImageEditor.SeamEditCommand> undoEntries, List<ImageEditor.SeamEditCommand> redoEntries)
+            throws IOException {
+        clear();
+        for (ImageEditor.SeamEditCommand command : undoEntries) {
+            undo.push(command);
+        }
+        for (ImageEditor.SeamEditCommand command : redoEntries) {
+            redo.push(command);
+        }
+        fitBudget();
+    }
+
+    /*
+     Spills the oldest in-memory entries until both stacks fit the budget together, taking them
+     from the stack that holds more memory. Each stack keeps at least its newest entry in memory.
+     */
+    private void fitBudget() throws IOException {
+        while (undo.memoryBytes + redo.memoryBytes > budget) {
+            SpillStack larger = undo.memoryBytes >= redo.memoryBytes ? undo : redo;
+            SpillStack smaller = larger == undo ? redo : undo;
+            if (!larger.spillOldest() && !smaller.spillOldest()) {
+                return;
+            }
+        }
+    }
+
+    /*
+     A stack whose newest entries are in memory and whose oldest entries are in a file. The file is
+     itself a stack: entries are appended in order and read back from the end, after which the file
+     is truncated, so it never holds entries that are also in memory.
+     */
+    private final class SpillStack {
+        // Newest entry first
+        private final Deque<ImageEditor.SeamEditCommand> inMemory = new ArrayDeque<>();
+        private long memoryBytes;
+
+        // File offsets of the spilled entries, newest last
+        private final Deque<Long> spilledOffsets = new ArrayDeque<>();
+        private Path file;
+        private FileChannel channel;
+
+        int size() {
+            return inMemory.size() + spilledOffsets.size();
+        }
+
+        void push(ImageEditor.SeamEditCommand command) throws IOException {
+            inMemory.push(command);
+            memoryBytes += command.sizeInBytes();
+        }
+
+        // Moves the oldest in-memory entry to the file, returns false if only the newest is left
+        boolean spillOldest() throws IOException {
+            if (inMemory.size() <= 1) {
+                return false;
+            }
+            spill(inMemory.removeLast());
+            return true;
+        }
+
+        ImageEditor.SeamEditCommand pop() throws IOException {
+            if (!inMemory.isEmpty()) {
+                ImageEditor.SeamEditCommand command = inMemory.pop();
+                memoryBytes -= command.sizeInBytes();
+                return command;
+            }
+            if (spilledOffsets.isEmpty()) {
+                return null;
+            }
+            return readBack();
+        }
+
+        void clear() throws IOException {
+            inMemory.clear();
+            memoryBytes = 0;
+            spilledOffsets.clear();
+            if (channel != null) {
+                channel.close();
+                Files.deleteIfExists(file);
+                channel = null;
+                file = null;
+            }
+        }
+
+        // All entries oldest first, without changing the stack
+        List<ImageEditor.SeamEditCommand> entries() throws IOException {
+            List<ImageEditor.SeamEditCommand> entries = new ArrayList<>(size());
+            long end = channel == null ? 0 : channel.size();
+            Iterator<Long> offsets = spilledOffsets.iterator();
+            if (offsets.hasNext()) {
+                long from = offsets.next();
+                while (from < end) {
+                    long to = offsets.hasNext() ? offsets.next() : end;
+                    entries.add(read(from, to));
+                    from = to;
+                }
+            }
+            Iterator<ImageEditor.SeamEditCommand> newestLast = inMemory.descendingIterator();
+            while (newestLast.hasNext()) {
+                entries.add(newestLast.next());
+            }
+            return entries;
+        }
+
+        // Appends the oldest in-memory entry to the end of the file
+        private void spill(ImageEditor.SeamEditCommand command) throws IOException {
+            memoryBytes -= command.sizeInBytes();
+            if (channel == null) {
+                file = Files.createTempFile("seam-undo", ".bin");
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            long offset = channel.size();
+            ByteBuffer buffer = command.toBytes();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            spilledOffsets.addLast(offset);
+        }
+
+        // Reads the newest spilled entry and cuts it off the file
+        private ImageEditor.SeamEditCommand readBack() throws IOException {
+            long offset = spilledOffsets.removeLast();
+            ImageEditor.SeamEditCommand command = read(offset, channel.size());
+            channel.truncate(offset);
+            return command;
+        }
+
+        // Reads the spilled entry stored in the bytes from..to-1 of the file
+        private ImageEditor.SeamEditCommand read(long from, long to) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    throw new IOException("Undo file " + file + " ends early");
+                }
+            }
+            buffer.flip();
+            return ImageEditor.SeamEditCommand.fromBytes(image, buffer);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.ac.nulondon;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ EnergyFunction.SOBEL over whole rows, one vector of columns at a time. Every lane evaluates the
+ same expression in the same order as the scalar kernel and Java never fuses multiply and add,
+ so the energies agree with SOBEL to within EPSILON (in practice they are bit-identical).
+ Only created through EnergyFunction.vectorizedSobel(), which checks that the module is present.
+ */
+final class VectorSobel implements EnergyFunction {
+    // Largest difference from the scalar energies that callers should allow for
+    static final double EPSILON = 1e-9;
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double energy(double[] above, double[] current, double[] below, int col, int width) {
+        return SOBEL.energy(above, current, below, col, width);
+    }
+
+    @Override
+    public void energyRow(double[] above, double[] current, double[] below, double[] out, int from, int to,
+                          int width) {
+        if (above == null || below == null) {
+            // Border rows are all brightness
+            System.arraycopy(current, from, out, from, to - from);
+            return;
+        }
+        int col = from;
+        if (col == 0) {
+            out[0] = current[0];
+            col = 1;
+        }
+        // Interior columns stop before the last one, every lane also reads its right neighbour
+        int end = Math.min(to, width - 1);
+        for (int lanes = SPECIES.length(); col + lanes <= end; col += lanes) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, above, col - 1);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, above, col);
+            DoubleVector c = DoubleVector.fromArray(SPECIES, above, col + 1);
+            DoubleVector d = DoubleVector.fromArray(SPECIES, current, col - 1);
+            DoubleVector f = DoubleVector.fromArray(SPECIES, current, col + 1);
+            DoubleVector g = DoubleVector.fromArray(SPECIES, below, col - 1);
+            DoubleVector h = DoubleVector.fromArray(SPECIES, below, col);
+            DoubleVector i = DoubleVector.fromArray(SPECIES, below, col + 1);
+
+            DoubleVector hEnergy = a.add(d.mul(2)).add(g).sub(c.add(f.mul(2)).add(i));
+            DoubleVector vEnergy = a.add(b.mul(2)).add(c).sub(g.add(h.mul(2)).add(i));
+            hEnergy.mul(hEnergy).add(vEnergy.mul(vEnergy)).sqrt().intoArray(out, col);
+        }
+        // Columns left over after the last full vector, and the right border
+        for (; col < to; col++) {
+            out[col] = SOBEL.energy(above, current, below, col, width);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class BatchRunnerTest {
+
+    // Writes noise images of the given widths, all 30 pixels high, plus one file that is not an image
+    private static void fillInput(Path in, int... widths) throws IOException {
+        Files.createDirectories(in);
+        for (int i = 0; i < widths.length; i++) {
+            ImageIO.write(ImageTest.noise(widths[i], 30, 20 + i), "png", in.resolve("image" + i + ".png").toFile());
+        }
+        Files.write(in.resolve("broken.png"), new byte[] {(byte) 0x89, 'P', 'N', 'G', 1, 2, 3});
+    }
+
+    @Test
+    void carvesEveryImageAndIsolatesBrokenFiles(@TempDir Path dir) throws IOException {
+        Path in = dir.resolve("in");
+        Path out = dir.resolve("out");
+        fillInput(in, 40, 50, 60);
+        BatchRunner batch = new BatchRunner(in, out);
+        batch.setTargetSize(25, -1);
+        batch.setComputePermits(2);
+
+        List<BatchRunner.Result> results = batch.run();
+
+        Assertions.assertThat(results).extracting(result -> result.file().getFileName().toString())
+                .containsExactly("broken.png", "image0.png", "image1.png", "image2.png");
+        Assertions.assertThat(results.get(0).succeeded()).isFalse();
+        Assertions.assertThat(results.get(0).error()).isNotBlank();
+        for (BatchRunner.Result result : results.subList(1, 4)) {
+            Assertions.assertThat(result.succeeded()).isTrue();
+            BufferedImage written = ImageIO.read(out.resolve(result.file().getFileName()).toFile());
+            Assertions.assertThat(written.getWidth()).isEqualTo(25);
+            Assertions.assertThat(written.getHeight()).isEqualTo(30);
+        }
+        Assertions.assertThat(out.resolve("broken.png")).doesNotExist();
+    }
+
+    @Test
+    void imagesLargerThanThePixelBudgetStillRunAlone(@TempDir Path dir) throws IOException {
+        Path in = dir.resolve("in");
+        Path out = dir.resolve("out");
+        fillInput(in, 40, 50);
+        BatchRunner batch = new BatchRunner(in, out);
+        batch.setTargetSize(45, 20);
+        // Smaller than any single image
+        batch.setMaxPixelsInFlight(100);
+
+        List<BatchRunner.Result> results = batch.run();
+
+        Assertions.assertThat(results).filteredOn(BatchRunner.Result::succeeded).hasSize(2);
+        Assertions.assertThat(ImageIO.read(out.resolve("image0.png").toFile()).getWidth()).isEqualTo(45);
+        Assertions.assertThat(ImageIO.read(out.resolve("image1.png").toFile()).getWidth()).isEqualTo(45);
+    }
+
+    @Test
+    void filesWithTheSameOutputNameDoNotOverwriteEachOther(@TempDir Path dir) throws IOException {
+        Path in = dir.resolve("in");
+        Path out = dir.resolve("out");
+        Files.createDirectories(in);
+        ImageIO.write(ImageTest.noise(40, 30, 30), "bmp", in.resolve("a.bmp").toFile());
+        ImageIO.write(ImageTest.noise(50, 30, 31), "png", in.resolve("a.png").toFile());
+        BatchRunner batch = new BatchRunner(in, out);
+        batch.setTargetSize(-1, 20);
+
+        List<BatchRunner.Result> results = batch.run();
+
+        Assertions.assertThat(results.get(0).succeeded()).isTrue();
+        Assertions.assertThat(results.get(1).succeeded()).isFalse();
+        Assertions.assertThat(results.get(1).error()).contains("a.png", "a.bmp");
+        // The output is the one of a.bmp, the first file by name
+        Assertions.assertThat(ImageIO.read(out.resolve("a.png").toFile()).getWidth()).isEqualTo(40);
+    }
+}
@@ -0,0 +1,152 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+class CarveServerTest {
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    private CarveServer server;
+
+    private void start(int workers, int queue, Duration timeout) throws IOException {
+        server = new CarveServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), workers, queue, timeout);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    private static byte[] png(BufferedImage img) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private HttpRequest carve(String query, byte[] body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/carve?" + query))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    @Test
+    void returnsTheCarvedPng() throws Exception {
+        start(2, 2, Duration.ofSeconds(30));
+        byte[] body = png(ImageTest.noise(40, 30, 30));
+
+        // Twice, so the second request runs on an editor whose buffers are already warm
+        for (String criterion : new String[] {"energy", "greenest"}) {
+            HttpResponse<byte[]> response = CLIENT.send(carve("width=25&height=20&criterion=" + criterion, body),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            Assertions.assertThat(response.statusCode()).isEqualTo(200);
+            BufferedImage carved = ImageIO.read(new ByteArrayInputStream(response.body()));
+            Assertions.assertThat(carved.getWidth()).isEqualTo(25);
+            Assertions.assertThat(carved.getHeight()).isEqualTo(20);
+        }
+
+        Image expected = new Image(ImageTest.noise(40, 30, 30));
+        while (expected.getWidth() > 25) {
+            expected.removeSeam(expected.getGreenestSeamColumns());
+        }
+        HttpResponse<byte[]> response = CLIENT.send(carve("width=25&criterion=greenest", body),
+                HttpResponse.BodyHandlers.ofByteArray());
+        BufferedImage carved = ImageIO.read(new ByteArrayInputStream(response.body()));
+        Assertions.assertThat(carved.getRGB(0, 0, 25, 30, null, 0, 25))
+                .isEqualTo(expected.toBufferedImage().getRGB(0, 0, 25, 30, null, 0, 25));
+    }
+
+    @Test
+    void rejectsBadRequests() throws Exception {
+        start(1, 0, Duration.ofSeconds(30));
+        byte[] body = png(ImageTest.noise(20, 20, 31));
+        Assertions.assertThat(CLIENT.send(carve("width=10&criterion=purple", body),
+                HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(400);
+        Assertions.assertThat(CLIENT.send(carve("width=10", new byte[] {1, 2, 3}),
+                HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(400);
+        Assertions.assertThat(CLIENT.send(carve("width=30&height=0", body),
+                HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(400);
+    }
+
+    @Test
+    void rejectsImagesWithTooManyPixelsBeforeDecoding() throws Exception {
+        start(1, 0, Duration.ofSeconds(30));
+        server.setMaxPixels(20 * 20);
+        byte[] body = png(ImageTest.noise(20, 20, 35));
+        Assertions.assertThat(CLIENT.send(carve("width=15", body), HttpResponse.BodyHandlers.ofString())
+                .statusCode()).isEqualTo(200);
+        // Counted after enlarging too
+        HttpResponse<String> enlarged = CLIENT.send(carve("width=21", body), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertThat(enlarged.statusCode()).isEqualTo(413);
+        Assertions.assertThat(enlarged.body()).contains("420");
+        Assertions.assertThat(CLIENT.send(carve("width=10", png(ImageTest.noise(21, 20, 36))),
+                HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(413);
+    }
+
+    @Test
+    void answers503WhenFullOrTooSlow() throws Exception {
+        start(1, 0, Duration.ofSeconds(30));
+        byte[] large = png(ImageTest.noise(800, 400, 32));
+        byte[] small = png(ImageTest.noise(20, 20, 33));
+
+        CompletableFuture<HttpResponse<String>> slow = CLIENT.sendAsync(carve("width=100", large),
+                HttpResponse.BodyHandlers.ofString());
+        while (server.inFlight() == 0 && !slow.isDone()) {
+            Thread.sleep(1);
+        }
+        // The only slot is taken, so this is turned away instead of queued
+        HttpResponse<String> rejected = CLIENT.send(carve("width=10", small), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertThat(rejected.statusCode()).isEqualTo(503);
+        Assertions.assertThat(rejected.headers().firstValue("Retry-After")).contains("1");
+        slow.join();
+
+        server.stop(0);
+        // Long enough to receive the body, far too short to carve 700 seams
+        start(1, 0, Duration.ofMillis(200));
+        HttpResponse<String> timedOut = CLIENT.send(carve("width=100", large), HttpResponse.BodyHandlers.ofString());
+        Assertions.assertThat(timedOut.statusCode()).isEqualTo(503);
+        Assertions.assertThat(timedOut.body()).contains("Timed out");
+        // The worker still holds the slot until it has stopped carving
+        while (server.inFlight() > 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void slowUploadTimesOutAndFreesItsSlot() throws Exception {
+        start(1, 0, Duration.ofMillis(300));
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            // Promises 1000 bytes and sends 10, then waits
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /carve?width=10 HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.write(new byte[10]);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String status = new String(in.readNBytes("HTTP/1.1 408".length()), StandardCharsets.US_ASCII);
+            Assertions.assertThat(status).isEqualTo("HTTP/1.1 408");
+        }
+        // The slot is released once the 408 is sent
+        while (server.inFlight() > 0) {
+            Thread.sleep(1);
+        }
+    }
+}
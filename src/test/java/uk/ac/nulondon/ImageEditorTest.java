@@ -0,0 +1,369 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+class ImageEditorTest {
+    private static final String BEACH = "src/main/resources/beach.png";
+
+    @Test
+    void carveToWidthMatchesSeamBySeamRemoval() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        editor.carveToWidth(editor.getImage().getWidth() - 3, ImageEditor.Criterion.ENERGY);
+
+        Image expected = new Image(ImageIO.read(new File(BEACH)));
+        for (int i = 0; i < 3; i++) {
+            expected.removeSeam(expected.getLowestEnergySeam());
+        }
+
+        Assertions.assertThat(editor.getImage().getWidth()).isEqualTo(expected.getWidth());
+        Assertions.assertThat(editor.getImage().toBufferedImage().getRGB(0, 0, expected.getWidth(),
+                        expected.getHeight(), null, 0, expected.getWidth()))
+                .isEqualTo(expected.toBufferedImage().getRGB(0, 0, expected.getWidth(),
+                        expected.getHeight(), null, 0, expected.getWidth()));
+    }
+
+    @Test
+    void carveToWidthRejectsWiderTarget() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        int width = editor.getImage().getWidth();
+        Assertions.assertThatThrownBy(() -> editor.carveToWidth(width + 1, ImageEditor.Criterion.GREENEST))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static int[] pixels(Image image) {
+        return image.toBufferedImage().getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    void cancelledHighlightLeavesImageAndHistoryUntouched() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        editor.highlightLowestEnergySeam();
+        editor.removeHighlighted();
+        int[] afterRemoval = pixels(editor.getImage());
+
+        editor.highlightGreenest(true);
+        Assertions.assertThat(pixels(editor.getImage())).isNotEqualTo(afterRemoval);
+        editor.cancelHighlight();
+        Assertions.assertThat(pixels(editor.getImage())).isEqualTo(afterRemoval);
+
+        // The earlier removal is still the one that gets undone
+        editor.undo();
+        Assertions.assertThat(pixels(editor.getImage())).isEqualTo(pixels(new Image(ImageIO.read(new File(BEACH)))));
+    }
+
+    @Test
+    void latestHighlightIsPreviewedInTheBackground(@TempDir Path dir) throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        Path preview = dir.resolve("preview.png");
+        editor.setPreviewPath(preview.toString());
+
+        // Several highlights in a row: only the newest one has to reach the file
+        for (int i = 0; i < 5; i++) {
+            editor.highlightGreenest(i % 2 == 0);
+        }
+        int[] highlighted = pixels(editor.getImage());
+        editor.awaitPreview();
+        Image written = new Image(ImageIO.read(preview.toFile()));
+        Assertions.assertThat(pixels(written)).isEqualTo(highlighted);
+        Assertions.assertThat(dir.toFile().list()).containsExactly("preview.png");
+    }
+
+    @Test
+    void failedPreviewIsCountedAndReported(@TempDir Path dir) throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        // The directory does not exist, so the temporary file cannot be created
+        editor.setPreviewPath(dir.resolve("missing").resolve("preview.png").toString());
+        editor.highlightGreenest();
+
+        Assertions.assertThatThrownBy(editor::awaitPreview).isInstanceOf(IOException.class)
+                .hasMessageContaining("Could not write preview");
+        Assertions.assertThat(editor.getMetrics().summary()).contains("previewFailures 1");
+        // Reported once, the editor keeps working
+        editor.awaitPreview();
+        editor.removeHighlighted();
+    }
+
+    // Channel by channel average of two packed colours
+    private static int average(int first, int second) {
+        int colour = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            colour |= ((((first >>> shift) & 0xFF) + ((second >>> shift) & 0xFF)) / 2) << shift;
+        }
+        return colour;
+    }
+
+    @Test
+    void enlargeToWidthInsertsAveragedPixelsIntoEveryRow() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        Image original = new Image(ImageIO.read(new File(BEACH)));
+        int width = original.getWidth();
+        // Half the width, the most a single round inserts
+        editor.enlargeToWidth(width + width / 2);
+
+        Image enlarged = editor.getImage();
+        Assertions.assertThat(enlarged.getWidth()).isEqualTo(width + width / 2);
+        Assertions.assertThat(enlarged.getHeight()).isEqualTo(original.getHeight());
+        int[] before = pixels(original);
+        int[] after = pixels(enlarged);
+        for (int row = 0; row < original.getHeight(); row++) {
+            // Every original pixel is still there in order, everything else came from its neighbours
+            int next = 0;
+            for (int col = 0; col < enlarged.getWidth(); col++) {
+                int pixel = after[row * enlarged.getWidth() + col];
+                if (next < width && pixel == before[row * width + next]) {
+                    next++;
+                } else {
+                    Assertions.assertThat(next).isGreaterThan(0);
+                    int left = before[row * width + next - 1];
+                    int right = next < width ? before[row * width + next] : left;
+                    Assertions.assertThat(pixel).isIn(left, average(left, right));
+                }
+            }
+            Assertions.assertThat(next).isEqualTo(width);
+        }
+    }
+
+    @Test
+    void enlargingAndCarvingKeepEnergyExact() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        // Two rounds of horizontal seams, then vertical ones
+        editor.enlargeToHeight(15);
+        editor.carveToWidth(6, ImageEditor.Criterion.ENERGY);
+        editor.enlargeToWidth(9);
+
+        Image image = editor.getImage();
+        Assertions.assertThat(image.getWidth()).isEqualTo(9);
+        Assertions.assertThat(image.getHeight()).isEqualTo(15);
+        double[] incremental = new double[9 * 15];
+        double[] full = new double[9 * 15];
+        image.updateEnergy();
+        for (int i = 0; i < incremental.length; i++) {
+            incremental[i] = image.energyAt(i / 9, i % 9);
+        }
+        image.calculateEnergy();
+        for (int i = 0; i < full.length; i++) {
+            full[i] = image.energyAt(i / 9, i % 9);
+        }
+        Assertions.assertThat(incremental).isEqualTo(full);
+    }
+
+    private static double[] energies(Image image) {
+        double[] energies = new double[image.getWidth() * image.getHeight()];
+        image.updateEnergy();
+        for (int i = 0; i < energies.length; i++) {
+            energies[i] = image.energyAt(i / image.getWidth(), i % image.getWidth());
+        }
+        return energies;
+    }
+
+    // Removes a few vertical and horizontal seams and undoes the last one
+    private static ImageEditor editedSession() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        // Small enough that part of the history is spilled to disk when saved
+        editor.setUndoBudget(1);
+        editor.load(BEACH);
+        for (int i = 0; i < 4; i++) {
+            editor.highlightLowestEnergySeam(i % 2 == 1);
+            editor.removeHighlighted();
+        }
+        editor.undo();
+        return editor;
+    }
+
+    @Test
+    void savedSessionResumesWithPixelsEnergiesAndHistory(@TempDir Path dir) throws IOException {
+        ImageEditor editor = editedSession();
+        Path session = dir.resolve("beach.session");
+        editor.saveSession(session.toString());
+
+        ImageEditor resumed = new ImageEditor();
+        resumed.loadSession(session.toString());
+        Image image = resumed.getImage();
+        Assertions.assertThat(image.getWidth()).isEqualTo(editor.getImage().getWidth());
+        Assertions.assertThat(image.getHeight()).isEqualTo(editor.getImage().getHeight());
+        Assertions.assertThat(pixels(image)).isEqualTo(pixels(editor.getImage()));
+        Assertions.assertThat(energies(image)).isEqualTo(energies(editor.getImage()));
+
+        // The undone removal can be redone, and every removal undone back to the original
+        resumed.redo();
+        editor.redo();
+        Assertions.assertThat(pixels(resumed.getImage())).isEqualTo(pixels(editor.getImage()));
+        for (int i = 0; i < 4; i++) {
+            resumed.undo();
+        }
+        Assertions.assertThat(pixels(resumed.getImage())).isEqualTo(pixels(new Image(ImageIO.read(new File(BEACH)))));
+        Assertions.assertThat(energies(resumed.getImage()))
+                .isEqualTo(energies(new Image(ImageIO.read(new File(BEACH)))));
+    }
+
+    @Test
+    void truncatedOrCorruptSessionIsRejected(@TempDir Path dir) throws IOException {
+        Path session = dir.resolve("beach.session");
+        editedSession().saveSession(session.toString());
+        byte[] bytes = Files.readAllBytes(session);
+
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        int[] loaded = pixels(editor.getImage());
+
+        Path truncated = dir.resolve("truncated.session");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 9));
+        Assertions.assertThatThrownBy(() -> editor.loadSession(truncated.toString()))
+                .isInstanceOf(IOException.class);
+
+        Path corrupt = dir.resolve("corrupt.session");
+        byte[] flipped = bytes.clone();
+        flipped[bytes.length / 2] ^= 0x10;
+        Files.write(corrupt, flipped);
+        Assertions.assertThatThrownBy(() -> editor.loadSession(corrupt.toString()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("checksum");
+
+        Path notASession = dir.resolve("beach.png");
+        Files.copy(Path.of(BEACH), notASession);
+        Assertions.assertThatThrownBy(() -> editor.loadSession(notASession.toString()))
+                .isInstanceOf(IOException.class);
+
+        // A rejected session leaves the current image as it was
+        Assertions.assertThat(pixels(editor.getImage())).isEqualTo(loaded);
+    }
+
+    @Test
+    void sessionWithHistoryForAnotherSizeIsRejected(@TempDir Path dir) throws IOException {
+        Image image = new Image(ImageTest.noise(20, 10, 29));
+        int[] colours = new int[10];
+
+        // A removal from a wider image: undoing it would insert beyond the last column
+        UndoHistory outside = new UndoHistory(image, UndoHistory.DEFAULT_BUDGET);
+        int[] seam = new int[10];
+        seam[4] = 25;
+        outside.push(new ImageEditor.SeamEditCommand(image, seam, colours, false));
+        Path outsideFile = dir.resolve("outside.session");
+        SessionFile.write(outsideFile, image, outside);
+        Assertions.assertThatThrownBy(() -> SessionFile.read(outsideFile))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("seam column 25");
+
+        // A horizontal seam with one pixel per row instead of one per column
+        UndoHistory wrongLength = new UndoHistory(image, UndoHistory.DEFAULT_BUDGET);
+        wrongLength.push(new ImageEditor.SeamEditCommand(image, new int[10], colours, true));
+        Path wrongLengthFile = dir.resolve("length.session");
+        SessionFile.write(wrongLengthFile, image, wrongLength);
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        Assertions.assertThatThrownBy(() -> editor.loadSession(wrongLengthFile.toString()))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("seam of 10 pixels");
+
+        // Records that fit load fine
+        UndoHistory fitting = new UndoHistory(image, UndoHistory.DEFAULT_BUDGET);
+        fitting.push(new ImageEditor.SeamEditCommand(image, new int[10], colours, false));
+        Path fittingFile = dir.resolve("fitting.session");
+        SessionFile.write(fittingFile, image, fitting);
+        Assertions.assertThat(SessionFile.read(fittingFile).undo()).hasSize(1);
+    }
+
+    @Test
+    void carvingWithMaskKeepsProtectedPixels(@TempDir Path dir) throws IOException {
+        Path noise = dir.resolve("noise.png");
+        ImageIO.write(ImageTest.noise(40, 30, 16), "png", noise.toFile());
+        ImageEditor editor = new ImageEditor();
+        editor.load(noise.toString());
+        int[] before = pixels(editor.getImage());
+
+        // Columns 10..14 are protected, the mask follows them as seams left of them are removed
+        double[] weights = new double[40 * 30];
+        for (int row = 0; row < 30; row++) {
+            Arrays.fill(weights, row * 40 + 10, row * 40 + 15, -1e9);
+        }
+        editor.carveToWidth(20, SeamCriterion.masked(SeamCriterion.LOWEST_ENERGY, weights, 40));
+
+        int[] after = pixels(editor.getImage());
+        for (int row = 0; row < 30; row++) {
+            int[] protectedRow = Arrays.copyOfRange(before, row * 40 + 10, row * 40 + 15);
+            int[] carvedRow = Arrays.copyOfRange(after, row * 20, row * 20 + 20);
+            Assertions.assertThat(carvedRow).containsSequence(protectedRow);
+        }
+    }
+
+    @Test
+    void repeatedHighlightsOfTheSameStateHitTheSeamCache() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(BEACH);
+        editor.highlightLowestEnergySeam();
+        int[] highlighted = pixels(editor.getImage());
+        // Declined, then asked again, alternating with the other criterion
+        editor.cancelHighlight();
+        editor.highlightGreenest();
+        editor.highlightLowestEnergySeam();
+        Assertions.assertThat(pixels(editor.getImage())).isEqualTo(highlighted);
+        editor.highlightGreenest();
+        Assertions.assertThat(editor.getSeamCacheMisses()).isEqualTo(2);
+        Assertions.assertThat(editor.getSeamCacheHits()).isEqualTo(2);
+
+        // A removal is a new state, undoing it brings back the cached one
+        editor.removeHighlighted();
+        editor.highlightLowestEnergySeam();
+        Assertions.assertThat(editor.getSeamCacheMisses()).isEqualTo(3);
+        editor.undo();
+        editor.highlightLowestEnergySeam();
+        Assertions.assertThat(editor.getSeamCacheHits()).isEqualTo(3);
+        Assertions.assertThat(pixels(editor.getImage())).isEqualTo(highlighted);
+        Assertions.assertThat(editor.getMetrics().summary()).contains("seamCacheHits 3");
+    }
+
+    @Test
+    void undoingBackToACachedVersionRestoresItsEnergies() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(ImageTest.noise(60, 40, 21));
+        long version = editor.getImage().getVersion();
+        double[] before = energies(editor.getImage());
+
+        editor.highlightLowestEnergySeam(false);
+        editor.removeHighlighted();
+        editor.highlightLowestEnergySeam(true);
+        editor.removeHighlighted();
+        editor.undo();
+        editor.undo();
+
+        // Only the seams are cached, the energy map of the version comes back from the dirty bands
+        Assertions.assertThat(editor.getImage().getVersion()).isEqualTo(version);
+        Assertions.assertThat(energies(editor.getImage())).isEqualTo(before);
+        editor.highlightLowestEnergySeam(false);
+        Assertions.assertThat(editor.getSeamCacheHits()).isEqualTo(1);
+    }
+
+    @Test
+    void clearingTheHistoryForgetsTheEditStack() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load(ImageTest.noise(40, 20, 34));
+        editor.carveToWidth(20, ImageEditor.Criterion.ENERGY);
+        Assertions.assertThat(editor.getImage().recordedEdits()).isZero();
+        editor.enlargeToWidth(30);
+        Assertions.assertThat(editor.getImage().recordedEdits()).isZero();
+
+        // Interactive edits are still remembered, so undo brings the version back
+        long version = editor.getImage().getVersion();
+        editor.highlightLowestEnergySeam();
+        editor.removeHighlighted();
+        Assertions.assertThat(editor.getImage().recordedEdits()).isEqualTo(1);
+        editor.undo();
+        Assertions.assertThat(editor.getImage().getVersion()).isEqualTo(version);
+    }
+}
@@ -0,0 +1,622 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+class ImageTest {
+
+    // Random noise image, seeded so every run sees the same pixels
+    static BufferedImage noise(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                img.setRGB(col, row, random.nextInt(0x1000000));
+            }
+        }
+        return img;
+    }
+
+    // Sobel that counts the pixels it is asked for
+    private static final class CountingEnergy implements EnergyFunction {
+        private long calls;
+
+        @Override
+        public double energy(double[] above, double[] current, double[] below, int col, int width) {
+            calls++;
+            return EnergyFunction.SOBEL.energy(above, current, below, col, width);
+        }
+    }
+
+    /*
+     One full energy pass and one seam search, returning the CPU time it took. The energy function
+     and the criterion each count their calls, which have to be one per pixel.
+     */
+    private static long energyAndSearchNanos(BufferedImage img) {
+        Image image = new Image(img);
+        CountingEnergy energy = new CountingEnergy();
+        image.setEnergyFunction(energy);
+        long[] visits = {0};
+        SeamCriterion counting = (row, col, argb, value) -> {
+            visits[0]++;
+            return -value;
+        };
+        energy.calls = 0;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long start = threads.getCurrentThreadCpuTime();
+        image.calculateEnergy();
+        image.getSeamColumns(counting);
+        long nanos = threads.getCurrentThreadCpuTime() - start;
+        long pixels = (long) img.getWidth() * img.getHeight();
+        Assertions.assertThat(energy.calls).isEqualTo(pixels);
+        Assertions.assertThat(visits[0]).isEqualTo(pixels);
+        return nanos;
+    }
+
+    // Fastest of several runs, after the JIT has warmed up on the same image
+    private static long bestNanos(BufferedImage img) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 8; run++) {
+            best = Math.min(best, energyAndSearchNanos(img));
+        }
+        return best;
+    }
+
+    @Test
+    void energyAndSeamSearchScaleLinearlyWithWidth() {
+        // The counts show one energy and one DP cell per pixel. The CPU time also covers the pixel,
+        // slot and row lookups around them: 4x the width is about 4x the time when they are O(1), and
+        // 16x if any of them still walked a row. The bound between the two leaves room for noise.
+        BufferedImage narrow = noise(1000, 60, 1);
+        BufferedImage wide = noise(4000, 60, 2);
+        bestNanos(narrow);
+        bestNanos(wide);
+        double ratio = (double) bestNanos(wide) / bestNanos(narrow);
+        Assertions.assertThat(ratio).isLessThan(9);
+    }
+
+    @Test
+    void seamColumnsAreConnectedAndMatchPixelSeam() {
+        Image image = new Image(noise(120, 80, 3));
+        int[] seam = image.getLowestEnergySeamColumns();
+
+        Assertions.assertThat(seam).hasSize(image.getHeight());
+        for (int row = 1; row < seam.length; row++) {
+            Assertions.assertThat(Math.abs(seam[row] - seam[row - 1])).isLessThanOrEqualTo(1);
+        }
+        Assertions.assertThat(Image.toColumns(image.getLowestEnergySeam())).isEqualTo(seam);
+    }
+
+    // Energies of all pixels in row order
+    private static double[] energies(Image image) {
+        double[] energies = new double[image.getWidth() * image.getHeight()];
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int col = 0; col < image.getWidth(); col++) {
+                energies[row * image.getWidth() + col] = image.energyAt(row, col);
+            }
+        }
+        return energies;
+    }
+
+    @Test
+    void incrementalEnergyMatchesFullRecompute() {
+        Image image = new Image(noise(60, 45, 4));
+        Random random = new Random(5);
+        Deque<ImageEditor.CommandControl> removed = new ArrayDeque<>();
+
+        for (int step = 0; step < 200; step++) {
+            int action = random.nextInt(4);
+            if (action == 0 && !removed.isEmpty()) {
+                removed.pop().undo();
+            } else if (action == 1) {
+                image.highlightSeam(image.getGreenestSeam(), new Color(random.nextInt(0x1000000)));
+            } else if (image.getWidth() > 3) {
+                List<Pixel> seam = random.nextBoolean() ? image.getLowestEnergySeam() : image.getGreenestSeam();
+                ImageEditor.CommandControl command = new ImageEditor.SeamEditCommand(image, seam, seam);
+                command.execute();
+                removed.push(command);
+            }
+
+            image.updateEnergy();
+            double[] incremental = energies(image);
+            image.calculateEnergy();
+            Assertions.assertThat(incremental).isEqualTo(energies(image));
+        }
+    }
+
+    // Physical copy of an image with rows and columns swapped
+    private static BufferedImage transposeCopy(BufferedImage img) {
+        BufferedImage copy = new BufferedImage(img.getHeight(), img.getWidth(), BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < img.getHeight(); row++) {
+            for (int col = 0; col < img.getWidth(); col++) {
+                copy.setRGB(row, col, img.getRGB(col, row));
+            }
+        }
+        return copy;
+    }
+
+    @Test
+    void transposedViewFindsSameSeamsAsTransposedCopy() {
+        BufferedImage img = noise(70, 50, 6);
+        Image view = new Image(img);
+        view.transpose();
+        Image copy = new Image(transposeCopy(img));
+
+        for (int i = 0; i < 10; i++) {
+            int[] seam = view.getLowestEnergySeamColumns();
+            Assertions.assertThat(seam).isEqualTo(copy.getLowestEnergySeamColumns());
+            view.removeSeam(seam);
+            copy.removeSeam(seam);
+        }
+        view.transpose();
+        Assertions.assertThat(view.getHeight()).isEqualTo(40);
+        Assertions.assertThat(view.toBufferedImage().getRGB(0, 0, 70, 40, null, 0, 70))
+                .isEqualTo(transposeCopy(copy.toBufferedImage()).getRGB(0, 0, 70, 40, null, 0, 70));
+    }
+
+    @Test
+    void incrementalEnergyMatchesFullRecomputeWithHorizontalSeams() {
+        BufferedImage img = noise(50, 55, 7);
+        Image image = new Image(img);
+        Random random = new Random(8);
+        Deque<ImageEditor.CommandControl> removed = new ArrayDeque<>();
+
+        for (int step = 0; step < 200; step++) {
+            if (random.nextInt(3) == 0 && !removed.isEmpty()) {
+                removed.pop().undo();
+            } else if (image.getWidth() > 3 && image.getHeight() > 3) {
+                boolean horizontal = random.nextBoolean();
+                if (horizontal) {
+                    image.transpose();
+                }
+                List<Pixel> seam = image.getLowestEnergySeam();
+                if (horizontal) {
+                    image.transpose();
+                }
+                ImageEditor.CommandControl command = new ImageEditor.SeamEditCommand(image, seam, seam, horizontal);
+                command.execute();
+                removed.push(command);
+            }
+
+            image.updateEnergy();
+            double[] incremental = energies(image);
+            image.calculateEnergy();
+            Assertions.assertThat(incremental).isEqualTo(energies(image));
+        }
+
+        // Undoing everything restores the original image
+        while (!removed.isEmpty()) {
+            removed.pop().undo();
+        }
+        Assertions.assertThat(image.toBufferedImage().getRGB(0, 0, 50, 55, null, 0, 50))
+                .isEqualTo(img.getRGB(0, 0, 50, 55, null, 0, 50));
+    }
+
+    @Test
+    void otherEnergyFunctionsStayExactUnderEdits() {
+        for (EnergyFunction energyFunction : List.of(EnergyFunction.DUAL_GRADIENT, EnergyFunction.FORWARD)) {
+            BufferedImage img = noise(40, 35, 15);
+            Image image = new Image(img, null, energyFunction);
+            Random random = new Random(16);
+            Deque<ImageEditor.CommandControl> removed = new ArrayDeque<>();
+
+            for (int step = 0; step < 60; step++) {
+                if (random.nextInt(3) == 0 && !removed.isEmpty()) {
+                    removed.pop().undo();
+                } else if (image.getWidth() > 3 && image.getHeight() > 3) {
+                    boolean horizontal = random.nextBoolean();
+                    if (horizontal) {
+                        image.transpose();
+                    }
+                    int[] seam = image.getLowestEnergySeamColumns();
+                    ImageEditor.SeamEditCommand command = new ImageEditor.SeamEditCommand(image, seam,
+                            image.seamColours(seam), horizontal);
+                    if (horizontal) {
+                        image.transpose();
+                    }
+                    command.execute();
+                    removed.push(command);
+                }
+
+                image.updateEnergy();
+                double[] incremental = energies(image);
+                image.calculateEnergy();
+                Assertions.assertThat(incremental).isEqualTo(energies(image));
+            }
+        }
+    }
+
+    @Test
+    void energyFunctionsCanBeSwitchedInPlace() {
+        BufferedImage img = noise(50, 40, 17);
+        Image image = new Image(img);
+        int[] sobelSeam = image.getLowestEnergySeamColumns();
+
+        image.setEnergyFunction(EnergyFunction.FORWARD);
+        Assertions.assertThat(image.getLowestEnergySeamColumns())
+                .isEqualTo(new Image(img, null, EnergyFunction.FORWARD).getLowestEnergySeamColumns());
+        image.setEnergyFunction(EnergyFunction.DUAL_GRADIENT);
+        Assertions.assertThat(energies(image)).isEqualTo(energies(new Image(img, null, EnergyFunction.DUAL_GRADIENT)));
+        image.setEnergyFunction(EnergyFunction.SOBEL);
+        Assertions.assertThat(image.getLowestEnergySeamColumns()).isEqualTo(sobelSeam);
+    }
+
+    @Test
+    void vectorizedSobelMatchesScalar() {
+        // The build adds the incubator module to the test JVM, so the vector backend is available here
+        EnergyFunction vector = EnergyFunction.vectorizedSobel();
+        Assertions.assertThat(vector).isInstanceOf(VectorSobel.class);
+
+        // A width that is not a multiple of any vector length leaves a scalar tail in every row
+        BufferedImage img = noise(203, 57, 18);
+        Image scalar = new Image(img);
+        Image vectorized = new Image(img, null, vector);
+        Assertions.assertThat(energies(vectorized)).containsExactly(energies(scalar), Assertions.within(VectorSobel.EPSILON));
+
+        // Dirty bands start and end at arbitrary columns
+        for (int i = 0; i < 20; i++) {
+            int[] seam = scalar.getLowestEnergySeamColumns();
+            Assertions.assertThat(vectorized.getLowestEnergySeamColumns()).isEqualTo(seam);
+            scalar.removeSeam(seam);
+            vectorized.removeSeam(seam);
+            vectorized.updateEnergy();
+            scalar.updateEnergy();
+            Assertions.assertThat(energies(vectorized)).containsExactly(energies(scalar), Assertions.within(VectorSobel.EPSILON));
+        }
+    }
+
+    // Smooth image with some structure, the kind of content where a coarse level is informative
+    private static BufferedImage landscape(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int value = (int) (120 + 90 * Math.sin(col / 37.0) * Math.cos(row / 53.0)) + random.nextInt(16);
+                img.setRGB(col, row, value * 0x010101);
+            }
+        }
+        return img;
+    }
+
+    // Total energy along a seam of the view
+    private static double seamEnergy(Image image, int[] seam) {
+        double total = 0;
+        for (int row = 0; row < seam.length; row++) {
+            total += image.energyAt(row, seam[row]);
+        }
+        return total;
+    }
+
+    @Test
+    void pyramidSearchStaysCloseToExactSeam() throws IOException {
+        // Quality report: energy of the approximate seam against the exact one
+        File[] resources = new File("src/main/resources").listFiles((dir, name) -> name.endsWith(".png"));
+        Arrays.sort(resources);
+        List<Object[]> cases = new ArrayList<>();
+        for (File resource : resources) {
+            cases.add(new Object[] {resource.getName(), ImageIO.read(resource), 2, 2});
+        }
+        cases.add(new Object[] {"landscape 600x400", landscape(600, 400, 19), 4, 8});
+
+        for (Object[] c : cases) {
+            BufferedImage img = (BufferedImage) c[1];
+            int factor = (int) c[2];
+            int band = (int) c[3];
+            Image exact = new Image(img);
+            Image approximate = new Image(img);
+            approximate.setApproximateSearch(factor, band);
+
+            int[] exactSeam = exact.getLowestEnergySeamColumns();
+            int[] approximateSeam = approximate.getLowestEnergySeamColumns();
+            for (int row = 1; row < approximateSeam.length; row++) {
+                Assertions.assertThat(Math.abs(approximateSeam[row] - approximateSeam[row - 1])).isLessThanOrEqualTo(1);
+            }
+            double exactCost = seamEnergy(exact, exactSeam);
+            double approximateCost = seamEnergy(approximate, approximateSeam);
+            System.out.printf("%-18s factor %d band %d: exact %.1f, approximate %.1f (+%.1f%%)%n", c[0], factor,
+                    band, exactCost, approximateCost, 100 * (approximateCost - exactCost) / Math.max(1, exactCost));
+            // The exact seam is optimal, the approximate one is at best as good
+            Assertions.assertThat(approximateCost).isGreaterThanOrEqualTo(exactCost - 1e-9);
+            Assertions.assertThat(approximateCost).isLessThanOrEqualTo(exactCost * 1.5 + 1e-9);
+        }
+    }
+
+    @Test
+    void parallelEnergyMatchesSequential() {
+        BufferedImage img = noise(400, 300, 9);
+        Image sequential = new Image(img);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Image parallel = new Image(img, pool);
+            Assertions.assertThat(energies(parallel)).isEqualTo(energies(sequential));
+
+            for (int i = 0; i < 5; i++) {
+                parallel.removeSeam(parallel.getGreenestSeamColumns());
+                sequential.removeSeam(sequential.getGreenestSeamColumns());
+            }
+            parallel.calculateEnergy();
+            sequential.calculateEnergy();
+            Assertions.assertThat(energies(parallel)).isEqualTo(energies(sequential));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void failingCriterionStopsEveryChunkOfTheParallelSearch() {
+        BufferedImage img = noise(Image.PARALLEL_DP_MIN_COLUMNS * 3, 30, 11);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Image parallel = new Image(img, pool);
+            // Once in the first chunk, which runs on the calling thread, and once in the last one
+            for (int failingCol : new int[] {0, img.getWidth() - 1}) {
+                SeamCriterion failing = (row, col, argb, energy) -> {
+                    if (row == 15 && col == failingCol) {
+                        throw new IllegalStateException("criterion failed");
+                    }
+                    return -energy;
+                };
+                Assertions.assertThatThrownBy(() -> parallel.getSeamColumns(failing))
+                        .hasMessageContaining("criterion failed");
+            }
+            // The pool is not left with chunks waiting at the barrier
+            Assertions.assertThat(parallel.getLowestEnergySeamColumns()).hasSize(30);
+            Assertions.assertThat(pool.awaitQuiescence(10, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void parallelSeamSearchMatchesSequential() {
+        // Few distinct values, so many seams tie and the tie-breaking has to match too
+        Random random = new Random(10);
+        BufferedImage img = new BufferedImage(Image.PARALLEL_DP_MIN_COLUMNS * 3 + 17, 30, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < img.getHeight(); row++) {
+            for (int col = 0; col < img.getWidth(); col++) {
+                img.setRGB(col, row, random.nextInt(3) * 0x404040);
+            }
+        }
+        Image sequential = new Image(img);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Image parallel = new Image(img, pool);
+            for (int i = 0; i < 3; i++) {
+                int[] seam = parallel.getLowestEnergySeamColumns();
+                Assertions.assertThat(seam).isEqualTo(sequential.getLowestEnergySeamColumns());
+                Assertions.assertThat(parallel.getGreenestSeamColumns()).isEqualTo(sequential.getGreenestSeamColumns());
+                parallel.removeSeam(seam);
+                sequential.removeSeam(seam);
+            }
+
+            // Horizontal seams of a very tall image take the parallel path through the transposed view
+            Image tall = new Image(transposeCopy(img), pool);
+            Image tallSequential = new Image(transposeCopy(img));
+            tall.transpose();
+            tallSequential.transpose();
+            Assertions.assertThat(tall.getLowestEnergySeamColumns())
+                    .isEqualTo(tallSequential.getLowestEnergySeamColumns());
+
+            // Forward energy adds step costs that read across chunk borders, in both orientations
+            for (Image[] pair : List.of(new Image[] {parallel, sequential}, new Image[] {tall, tallSequential})) {
+                pair[0].setEnergyFunction(EnergyFunction.FORWARD);
+                pair[1].setEnergyFunction(EnergyFunction.FORWARD);
+                Assertions.assertThat(pair[0].getLowestEnergySeamColumns())
+                        .isEqualTo(pair[1].getLowestEnergySeamColumns());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void roundTripPreservesAlpha() {
+        BufferedImage img = new BufferedImage(9, 7, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(11);
+        for (int row = 0; row < img.getHeight(); row++) {
+            for (int col = 0; col < img.getWidth(); col++) {
+                img.setRGB(col, row, random.nextInt());
+            }
+        }
+        BufferedImage exported = new Image(img).toBufferedImage();
+
+        Assertions.assertThat(exported.getType()).isEqualTo(BufferedImage.TYPE_INT_ARGB);
+        Assertions.assertThat(exported.getRGB(0, 0, 9, 7, null, 0, 9)).isEqualTo(img.getRGB(0, 0, 9, 7, null, 0, 9));
+    }
+
+    @Test
+    void rasterAndBulkReadsAgree() {
+        BufferedImage rgb = noise(13, 11, 12);
+        BufferedImage bgr = new BufferedImage(13, 11, BufferedImage.TYPE_3BYTE_BGR);
+        bgr.getGraphics().drawImage(rgb, 0, 0, null);
+        BufferedImage subImage = noise(20, 20, 13).getSubimage(3, 4, 13, 11);
+
+        for (BufferedImage img : List.of(rgb, bgr, subImage)) {
+            BufferedImage exported = new Image(img).toBufferedImage();
+            Assertions.assertThat(exported.getType()).isEqualTo(BufferedImage.TYPE_INT_RGB);
+            Assertions.assertThat(exported.getRGB(0, 0, 13, 11, null, 0, 13))
+                    .isEqualTo(img.getRGB(0, 0, 13, 11, null, 0, 13));
+        }
+    }
+
+    @Test
+    void customCriteriaFindTheSameSeamsAsBuiltIns() {
+        Image image = new Image(noise(60, 40, 14));
+        Image transposed = new Image(noise(60, 40, 14));
+        transposed.transpose();
+        for (Image view : List.of(image, transposed)) {
+            Assertions.assertThat(view.getSeamColumns((row, col, argb, energy) -> (argb >> 8) & 0xFF))
+                    .isEqualTo(view.getGreenestSeamColumns());
+            Assertions.assertThat(view.getSeamColumns((row, col, argb, energy) -> -energy))
+                    .isEqualTo(view.getLowestEnergySeamColumns());
+            Assertions.assertThat(view.getSeamColumns(SeamCriterion.channel(16)))
+                    .isEqualTo(view.getSeamColumns(SeamCriterion.REDDEST));
+        }
+    }
+
+    @Test
+    void maskTargetsAndProtectsRegions() {
+        Image image = new Image(noise(30, 20, 15));
+        double[] weights = new double[30 * 20];
+        for (int row = 0; row < 20; row++) {
+            weights[row * 30 + 7] = 1e9;
+        }
+        int[] targeted = image.getSeamColumns(SeamCriterion.masked(SeamCriterion.LOWEST_ENERGY, weights, 30));
+        Assertions.assertThat(targeted).containsOnly(7);
+
+        // Everything but columns 20..22 protected: the seam has to stay within them
+        Arrays.fill(weights, -1e9);
+        for (int row = 0; row < 20; row++) {
+            Arrays.fill(weights, row * 30 + 20, row * 30 + 23, 0);
+        }
+        int[] allowed = image.getSeamColumns(SeamCriterion.masked(SeamCriterion.GREENEST, weights, 30));
+        Assertions.assertThat(Arrays.stream(allowed)).allMatch(col -> col >= 20 && col <= 22);
+
+        Assertions.assertThatThrownBy(() -> SeamCriterion.masked(SeamCriterion.GREENEST, weights, 31))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Pixels of the view in row order
+    private static int[] pixels(Image image) {
+        return image.toBufferedImage().getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    void multiSeamRemovalMatchesRemovingEachSeam() {
+        for (boolean horizontal : new boolean[] {false, true}) {
+            Image image = new Image(noise(80, 60, 17));
+            Image oneByOne = new Image(noise(80, 60, 17));
+            if (horizontal) {
+                image.transpose();
+                oneByOne.transpose();
+            }
+            int[] single = image.getLowestEnergySeamColumns();
+            int[][] seams = image.getSeamsColumns(SeamCriterion.LOWEST_ENERGY, 12);
+            Assertions.assertThat(seams.length).isBetween(2, 12);
+            for (int[] seam : seams) {
+                for (int row = 1; row < seam.length; row++) {
+                    Assertions.assertThat(Math.abs(seam[row] - seam[row - 1])).isLessThanOrEqualTo(1);
+                }
+            }
+            // The pixels of the best single seam are always among the ones removed
+            for (int row = 0; row < single.length; row++) {
+                List<Integer> removed = new ArrayList<>();
+                for (int i = 0; i < seams.length; i++) {
+                    removed.add(seams[i][row] + i);
+                }
+                Assertions.assertThat(removed).contains(single[row]);
+            }
+
+            image.removeSeams(seams);
+            for (int[] seam : seams) {
+                oneByOne.removeSeam(seam);
+            }
+            oneByOne.updateEnergy();
+            Assertions.assertThat(image.getWidth()).isEqualTo(oneByOne.getWidth());
+            Assertions.assertThat(pixels(image)).isEqualTo(pixels(oneByOne));
+            Assertions.assertThat(energies(image)).isEqualTo(energies(oneByOne));
+        }
+    }
+
+    // Carves seams off a copy of img, count per search, and returns the energy the removed seams had when found
+    private static double carvedEnergy(BufferedImage img, int seams, int perPass) {
+        Image image = new Image(img);
+        double total = 0;
+        while (seams > 0) {
+            int[][] batch = perPass == 1 ? new int[][] {image.getLowestEnergySeamColumns()}
+                    : image.getSeamsColumns(SeamCriterion.LOWEST_ENERGY, Math.min(perPass, seams));
+            for (int i = 0; i < batch.length; i++) {
+                for (int row = 0; row < batch[i].length; row++) {
+                    // Seam i is given after removing the i seams left of it
+                    total += image.energyAt(row, batch[i][row] + i);
+                }
+            }
+            image.removeSeams(batch);
+            seams -= batch.length;
+        }
+        return total;
+    }
+
+    @Test
+    void multiSeamCarvingStaysCloseToOneSeamAtATime() throws IOException {
+        // Quality report: energy removed by batched carving against the exact one seam at a time
+        File[] resources = new File("src/main/resources").listFiles((dir, name) -> name.endsWith(".png"));
+        Arrays.sort(resources);
+        List<Object[]> cases = new ArrayList<>();
+        for (File resource : resources) {
+            BufferedImage img = ImageIO.read(resource);
+            cases.add(new Object[] {resource.getName(), img, img.getWidth() * 3 / 10 + 1, 3});
+        }
+        cases.add(new Object[] {"landscape 600x400", landscape(600, 400, 19), 180, 16});
+
+        for (Object[] c : cases) {
+            BufferedImage img = (BufferedImage) c[1];
+            int seams = (int) c[2];
+            int perPass = (int) c[3];
+            double exact = carvedEnergy(img, seams, 1);
+            double batched = carvedEnergy(img, seams, perPass);
+            System.out.printf("%-18s %d seams, %d per pass: one at a time %.1f, batched %.1f (%+.1f%%)%n", c[0],
+                    seams, perPass, exact, batched, 100 * (batched - exact) / Math.max(1, exact));
+            Assertions.assertThat(batched).isLessThanOrEqualTo(exact * 1.5 + 1e-9);
+        }
+    }
+
+    @Test
+    void versionFollowsEditsAndReturnsOnUndo() {
+        Image image = new Image(noise(40, 30, 18));
+        long loaded = image.getVersion();
+        int[] seam = image.getLowestEnergySeamColumns();
+        int[] colours = image.seamColours(seam);
+        image.removeSeam(seam);
+        long removed = image.getVersion();
+        Assertions.assertThat(removed).isNotEqualTo(loaded);
+
+        image.transpose();
+        int[] horizontal = image.getGreenestSeamColumns();
+        int[] horizontalColours = image.seamColours(horizontal);
+        image.removeSeam(horizontal);
+        long both = image.getVersion();
+        Assertions.assertThat(both).isNotIn(loaded, removed);
+
+        // Undo in reverse order goes back through the same versions, redo comes forward again
+        image.addSeam(horizontal, horizontalColours);
+        Assertions.assertThat(image.getVersion()).isEqualTo(removed);
+        image.transpose();
+        image.addSeam(seam, colours);
+        Assertions.assertThat(image.getVersion()).isEqualTo(loaded);
+        image.removeSeam(seam);
+        Assertions.assertThat(image.getVersion()).isEqualTo(removed);
+
+        // Inserting different colours is a new state
+        int[] other = colours.clone();
+        other[0] ^= 1;
+        image.addSeam(seam, other);
+        Assertions.assertThat(image.getVersion()).isNotIn(loaded, removed, both);
+
+        // Several seams removed together get the versions of removing them one by one
+        Image batched = new Image(noise(40, 30, 18));
+        Image oneByOne = new Image(noise(40, 30, 18));
+        int[][] seams = batched.getSeamsColumns(SeamCriterion.LOWEST_ENERGY, 4);
+        batched.removeSeams(seams);
+        for (int[] s : seams) {
+            oneByOne.removeSeam(s);
+        }
+        Assertions.assertThat(batched.getVersion()).isEqualTo(oneByOne.getVersion());
+    }
+}
@@ -0,0 +1,31 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+class MetricsTest {
+
+    @Test
+    void editorRecordsOperationsAndGauges() throws IOException {
+        ImageEditor editor = new ImageEditor();
+        editor.load("src/main/resources/beach.png");
+        editor.highlightLowestEnergySeam();
+        editor.removeHighlighted();
+        editor.undo();
+
+        Metrics metrics = editor.getMetrics();
+        Assertions.assertThat(metrics.count(Metrics.Operation.LOAD)).isEqualTo(1);
+        Assertions.assertThat(metrics.count(Metrics.Operation.DECODE)).isEqualTo(1);
+        Assertions.assertThat(metrics.count(Metrics.Operation.SEAM_SEARCH)).isEqualTo(1);
+        Assertions.assertThat(metrics.count(Metrics.Operation.HIGHLIGHT)).isEqualTo(1);
+        Assertions.assertThat(metrics.count(Metrics.Operation.REMOVE_SEAM)).isEqualTo(1);
+        Assertions.assertThat(metrics.count(Metrics.Operation.ADD_SEAM)).isEqualTo(1);
+        Assertions.assertThat(metrics.toJson())
+                .contains("\"load\": {\"count\": 1")
+                .contains("\"width\": 8")
+                .contains("\"undoDepth\": 0");
+        Assertions.assertThat(metrics.summary()).contains("seam_search  count 1");
+    }
+}
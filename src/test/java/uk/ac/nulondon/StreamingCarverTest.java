@@ -0,0 +1,105 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+class StreamingCarverTest {
+
+    private static int[] argb(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    // Carves with the editor and with the streaming carver, bands of 7 rows so decoding takes several reads
+    private static void assertSameAsEditor(Path dir, BufferedImage original, int width, ImageEditor.Criterion criterion,
+                                           EnergyFunction energyFunction) throws IOException {
+        Path in = dir.resolve("in.png");
+        Path out = dir.resolve("out.png");
+        ImageIO.write(original, "png", in.toFile());
+
+        ImageEditor editor = new ImageEditor();
+        editor.setEnergyFunction(energyFunction);
+        editor.load(original);
+        editor.carveToWidth(width, criterion);
+
+        StreamingCarver carver = new StreamingCarver(in, out);
+        carver.setCriterion(criterion);
+        carver.setEnergyFunction(energyFunction);
+        carver.setBandRows(7);
+        carver.carveToWidth(width);
+
+        BufferedImage streamed = ImageIO.read(out.toFile());
+        BufferedImage expected = editor.getImage().toBufferedImage();
+        Assertions.assertThat(streamed.getWidth()).isEqualTo(width);
+        Assertions.assertThat(streamed.getHeight()).isEqualTo(original.getHeight());
+        Assertions.assertThat(argb(streamed)).isEqualTo(argb(expected));
+    }
+
+    @Test
+    void streamedCarvingRemovesTheSameSeamsAsTheEditor(@TempDir Path dir) throws IOException {
+        assertSameAsEditor(dir, ImageTest.noise(60, 45, 24), 40, ImageEditor.Criterion.ENERGY, EnergyFunction.SOBEL);
+        assertSameAsEditor(dir, ImageTest.noise(40, 30, 25), 28, ImageEditor.Criterion.GREENEST,
+                EnergyFunction.SOBEL);
+        assertSameAsEditor(dir, ImageTest.noise(40, 30, 26), 31, ImageEditor.Criterion.ENERGY,
+                EnergyFunction.DUAL_GRADIENT);
+        assertSameAsEditor(dir, ImageTest.noise(40, 30, 27), 29, ImageEditor.Criterion.ENERGY,
+                EnergyFunction.FORWARD);
+    }
+
+    @Test
+    void keepingTheWidthCopiesAndBadWidthsAreRejected(@TempDir Path dir) throws IOException {
+        BufferedImage noise = ImageTest.noise(20, 10, 28);
+        Path in = dir.resolve("in.png");
+        Path out = dir.resolve("out.png");
+        ImageIO.write(noise, "png", in.toFile());
+
+        StreamingCarver carver = new StreamingCarver(in, out);
+        carver.carveToWidth(20);
+        Assertions.assertThat(argb(ImageIO.read(out.toFile()))).isEqualTo(argb(noise));
+
+        Assertions.assertThatThrownBy(() -> carver.carveToWidth(21)).isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThatThrownBy(() -> new StreamingCarver(dir.resolve("missing.png"), out).carveToWidth(5))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void outputHasAlphaOnlyIfTheInputHasIt(@TempDir Path dir) throws IOException {
+        BufferedImage translucent = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+        translucent.setRGB(0, 0, 20, 10, argb(ImageTest.noise(20, 10, 29)), 0, 20);
+        translucent.setRGB(3, 4, 0x80123456);
+        for (BufferedImage original : new BufferedImage[] {ImageTest.noise(20, 10, 29), translucent}) {
+            Path in = dir.resolve("in.png");
+            Path out = dir.resolve("out.png");
+            ImageIO.write(original, "png", in.toFile());
+            new StreamingCarver(in, out).carveToWidth(15);
+            Assertions.assertThat(ImageIO.read(out.toFile()).getColorModel().hasAlpha())
+                    .isEqualTo(original.getColorModel().hasAlpha());
+        }
+    }
+
+    @Test
+    void workFilesGoToTheWorkDirectoryAndAreDeleted(@TempDir Path dir) throws IOException {
+        Path in = dir.resolve("in.png");
+        Path out = dir.resolve("out.png");
+        Path work = Files.createDirectory(dir.resolve("work"));
+        ImageIO.write(ImageTest.noise(20, 10, 30), "png", in.toFile());
+
+        StreamingCarver carver = new StreamingCarver(in, out);
+        carver.setWorkDirectory(work);
+        carver.carveToWidth(15);
+        try (Stream<Path> files = Files.list(work)) {
+            Assertions.assertThat(files).isEmpty();
+        }
+        Assertions.assertThat(ImageIO.read(out.toFile()).getWidth()).isEqualTo(15);
+
+        carver.setWorkDirectory(dir.resolve("missing"));
+        Assertions.assertThatThrownBy(() -> carver.carveToWidth(15)).isInstanceOf(IOException.class);
+    }
+}
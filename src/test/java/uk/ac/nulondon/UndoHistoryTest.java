@@ -0,0 +1,88 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class UndoHistoryTest {
+
+    private static int[] pixels(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+
+    @Test
+    void spilledHistoryUndoesAndRedoesEveryEdit() throws IOException {
+        BufferedImage img = ImageTest.noise(300, 120, 14);
+        Image image = new Image(img);
+        // Room for about ten seams in memory, everything older goes to the temporary file
+        long budget = 10 * (8 * 300 + 64);
+        UndoHistory history = new UndoHistory(image, budget);
+
+        for (int i = 0; i < 250; i++) {
+            // Every fifth seam is horizontal, searched in the transposed view
+            boolean horizontal = i % 5 == 0;
+            if (horizontal) {
+                image.transpose();
+            }
+            int[] seam = image.getLowestEnergySeamColumns();
+            ImageEditor.SeamEditCommand command = new ImageEditor.SeamEditCommand(image, seam,
+                    image.seamColours(seam), horizontal);
+            if (horizontal) {
+                image.transpose();
+            }
+            command.execute();
+            history.push(command);
+        }
+        Assertions.assertThat(history.spilledEntries()).isGreaterThan(200);
+        int[] carved = pixels(image.toBufferedImage());
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        // Half way both stacks are long, together they still fit the one budget
+        for (int i = 0; i < 125; i++) {
+            history.undo();
+        }
+        Assertions.assertThat(history.memoryBytes()).isPositive().isLessThanOrEqualTo(budget);
+        while (history.undo()) {
+            // undo the rest
+        }
+        Assertions.assertThat(history.redoDepth()).isEqualTo(250);
+        Assertions.assertThat(pixels(image.toBufferedImage())).isEqualTo(pixels(img));
+
+        while (history.redo()) {
+            // redo everything
+        }
+        Assertions.assertThat(image.getWidth()).isEqualTo(width);
+        Assertions.assertThat(image.getHeight()).isEqualTo(height);
+        Assertions.assertThat(pixels(image.toBufferedImage())).isEqualTo(carved);
+        history.clear();
+    }
+
+    @Test
+    void closeDeletesTheSpillFiles() throws IOException {
+        Image image = new Image(ImageTest.noise(100, 40, 3));
+        // Room for one seam, so both stacks spill once a few edits are undone
+        UndoHistory history = new UndoHistory(image, 8 * 100 + 64);
+        for (int i = 0; i < 6; i++) {
+            int[] seam = image.getLowestEnergySeamColumns();
+            ImageEditor.SeamEditCommand command = new ImageEditor.SeamEditCommand(image, seam,
+                    image.seamColours(seam), false);
+            command.execute();
+            history.push(command);
+        }
+        for (int i = 0; i < 3; i++) {
+            history.undo();
+        }
+        List<Path> files = history.spillFiles();
+        Assertions.assertThat(files).hasSize(2).allMatch(Files::exists);
+
+        history.close();
+        Assertions.assertThat(files).noneMatch(Files::exists);
+        Assertions.assertThat(history.spillFiles()).isEmpty();
+    }
+}